@@ -7,7 +7,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author Absurdity 457676887
@@ -17,6 +20,7 @@ public class Main {
     
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
     private static final String VERSION = "1.0.0";
+    private static final String DEFAULT_INDEX = "classpath.idx";
     
     public static void main(String[] args) {
         Options options = createOptions();
@@ -119,6 +123,11 @@ public class Main {
             .desc("追踪指定方法的调用")
             .build());
         
+        options.addOption(Option.builder()
+            .longOpt("trace-export")
+            .desc("导出调用树为火焰图 collapsed 格式 (配合 -o)")
+            .build());
+        
         // 输出选项
         options.addOption(Option.builder("o")
             .longOpt("output")
@@ -179,6 +188,62 @@ public class Main {
             .desc("在目标JVM启动Agent服务器")
             .build());
         
+        options.addOption(Option.builder()
+            .longOpt("index-classpath")
+            .hasArg()
+            .argName("CLASSPATH")
+            .desc("并行解析classpath上的jar和目录，生成类元数据索引 (配合 -o，默认 classpath.idx)")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("index")
+            .hasArg()
+            .argName("FILE")
+            .desc("查询使用的类元数据索引文件 (默认 classpath.idx)")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("implementors")
+            .hasArg()
+            .argName("CLASS")
+            .desc("从索引查询类/接口的全部实现类")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("class-info")
+            .hasArg()
+            .argName("CLASS")
+            .desc("从索引查询类的父类、接口、字段和方法")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("classpath")
+            .hasArg()
+            .argName("CLASSPATH")
+            .desc("引用查询扫描的classpath (配合 --callers/--field-users/--strings)")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("callers")
+            .hasArg()
+            .argName("CLASS#METHOD")
+            .desc("查询方法的调用方")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("field-users")
+            .hasArg()
+            .argName("CLASS#FIELD")
+            .desc("查询读写字段的位置")
+            .build());
+        
+        options.addOption(Option.builder()
+            .longOpt("strings")
+            .hasArg()
+            .argName("TEXT")
+            .desc("查询包含指定文本的字符串常量")
+            .build());
+        
         return options;
     }
 
@@ -197,6 +262,25 @@ public class Main {
         String pid = cmd.getOptionValue("pid");
         String output = cmd.getOptionValue("output");
         
+        if (cmd.hasOption("index-classpath")) {
+            indexClasspath(cmd.getOptionValue("index-classpath"), output != null ? output : DEFAULT_INDEX);
+            return;
+        }
+        
+        if (cmd.hasOption("callers") || cmd.hasOption("field-users") || cmd.hasOption("strings")) {
+            if (!cmd.hasOption("classpath")) {
+                System.out.println("请使用 --classpath 指定要扫描的classpath");
+                return;
+            }
+            queryReferences(cmd.getOptionValue("classpath"), cmd);
+            return;
+        }
+        
+        if (cmd.hasOption("implementors") || cmd.hasOption("class-info")) {
+            queryIndex(cmd.getOptionValue("index", DEFAULT_INDEX), cmd);
+            return;
+        }
+        
         if (cmd.hasOption("heap-info")) {
             if (pid == null) {
                 System.out.println("请使用 -p/--pid 指定目标进程");
@@ -276,9 +360,79 @@ public class Main {
             return;
         }
         
+        if (cmd.hasOption("trace-export")) {
+            exportCallTree(pid, output);
+            return;
+        }
+        
         System.out.println("请指定操作，使用 -h 查看帮助");
     }
 
+    private static void indexClasspath(String classpath, String output) throws Exception {
+        List<Path> roots = ClasspathIndexer.parseClasspath(classpath);
+        if (roots.isEmpty()) {
+            System.out.println("classpath 为空");
+            return;
+        }
+        
+        ClasspathIndexer.Result result = new ClasspathIndexer().index(roots, Paths.get(output));
+        System.out.println(result);
+        System.out.println("索引已保存到: " + output);
+    }
+
+    private static void queryIndex(String indexFile, CommandLine cmd) throws Exception {
+        ClasspathIndex index = ClasspathIndex.load(Paths.get(indexFile));
+        
+        if (cmd.hasOption("implementors")) {
+            String type = cmd.getOptionValue("implementors");
+            List<String> implementors = index.implementors(type);
+            System.out.println("\n========== Implementors of " + type + " ==========");
+            for (String name : implementors) {
+                System.out.println("  " + name + "  (" + index.origin(name) + ")");
+            }
+            System.out.println("Total: " + implementors.size());
+        }
+        
+        if (cmd.hasOption("class-info")) {
+            String className = cmd.getOptionValue("class-info");
+            ClassDumper.ClassMetadata metadata = index.find(className);
+            if (metadata == null) {
+                System.out.println("索引中未找到类: " + className);
+                return;
+            }
+            System.out.print(metadata);
+            System.out.println("  Origin: " + index.origin(className));
+        }
+    }
+
+    private static void queryReferences(String classpath, CommandLine cmd) throws Exception {
+        ReferenceIndex index = ReferenceIndex.fromClasspath(ClasspathIndexer.parseClasspath(classpath),
+            ForkJoinPool.commonPool());
+        System.out.println(index.stats());
+        
+        if (cmd.hasOption("callers")) {
+            String target = cmd.getOptionValue("callers");
+            printReferences("Callers of " + target, index.callers(ReferenceIndex.Target.parse(target)));
+        }
+        if (cmd.hasOption("field-users")) {
+            String target = cmd.getOptionValue("field-users");
+            ReferenceIndex.Target parsed = ReferenceIndex.Target.parse(target);
+            printReferences("Users of field " + target, index.fieldUsers(parsed.owner, parsed.name));
+        }
+        if (cmd.hasOption("strings")) {
+            String text = cmd.getOptionValue("strings");
+            printReferences("String constants containing \"" + text + "\"", index.strings(text));
+        }
+    }
+
+    private static void printReferences(String title, List<ReferenceIndex.Reference> refs) {
+        System.out.println("\n========== " + title + " ==========");
+        for (ReferenceIndex.Reference ref : refs) {
+            System.out.println("  " + ref);
+        }
+        System.out.println("Total: " + refs.size());
+    }
+
     private static void listProcesses() {
         JvmProcessManager manager = new JvmProcessManager();
         manager.printProcesses();
@@ -464,6 +618,20 @@ public class Main {
         System.out.println("方法追踪已启用: " + target);
     }
 
+    private static void exportCallTree(String pid, String output) throws Exception {
+        JvmProcessManager manager = new JvmProcessManager();
+        String agentPath = findAgentJar();
+        
+        if (agentPath == null) {
+            System.out.println("未找到Agent JAR文件，请先构建项目: gradle agentJar");
+            return;
+        }
+        
+        String path = new File(output != null ? output : "dumps/calltree.collapsed").getAbsolutePath();
+        manager.loadAgent(pid, agentPath, "cmd=trace-export,output=" + path);
+        System.out.println("调用树已导出到目标进程的: " + path);
+    }
+
     private static String findAgentJar() {
         String[] possiblePaths = {
             "build/libs/dumper-agent.jar",
@@ -1,15 +1,39 @@
 package com.javadumper.agent;
 
+import com.javadumper.core.ClassDirectoryWatcher;
+import com.javadumper.core.DecompileCache;
 import com.javadumper.core.HotSwapper;
+import com.javadumper.core.LoadedClassIndex;
+import com.javadumper.core.ReferenceIndex;
 import com.javadumper.core.RuntimeClassDumper;
+import com.javadumper.core.Selector;
+import com.javadumper.core.TransformCache;
+import com.javadumper.core.TransformDispatcher;
+import com.javadumper.core.TypeHierarchyCache;
+import com.javadumper.probe.AllocationRecorder;
+import com.javadumper.probe.ArgumentRecorder;
+import com.javadumper.probe.CallTreeRecorder;
+import com.javadumper.probe.ContentionRecorder;
+import com.javadumper.probe.ExceptionRecorder;
+import com.javadumper.probe.ProbeDrainer;
+import com.javadumper.probe.ProbeSwitches;
+import com.javadumper.probe.SamplingProfiler;
+import com.javadumper.probe.TimingRecorder;
+import com.javadumper.probe.TraceRecorder;
 
 import java.io.*;
 import java.lang.instrument.Instrumentation;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -22,6 +46,11 @@ public class AgentServer {
     private final Instrumentation instrumentation;
     private final RuntimeClassDumper classDumper;
     private final HotSwapper hotSwapper;
+    private final TraceRecorder.RecentEvents recentTraceEvents = new TraceRecorder.RecentEvents(10000);
+    private TraceRecorder.FileSubscriber traceFile;
+    private SamplingProfiler profiler;
+    private ClassDirectoryWatcher classWatcher;
+    private volatile ReferenceIndex referenceIndex;
     
     private ServerSocket serverSocket;
     private ExecutorService executor;
@@ -32,6 +61,7 @@ public class AgentServer {
         this.instrumentation = instrumentation;
         this.classDumper = new RuntimeClassDumper(instrumentation);
         this.hotSwapper = new HotSwapper(instrumentation);
+        TraceRecorder.addSubscriber(recentTraceEvents);
     }
 
     public void start() throws IOException {
@@ -59,6 +89,11 @@ public class AgentServer {
 
     public void stop() {
         running.set(false);
+        TraceRecorder.removeSubscriber(recentTraceEvents);
+        synchronized (this) {
+            if (profiler != null) profiler.stop();
+            if (classWatcher != null) classWatcher.stop();
+        }
         try {
             if (serverSocket != null) serverSocket.close();
             if (executor != null) executor.shutdownNow();
@@ -96,14 +131,71 @@ public class AgentServer {
                     return listClasses(args);
                 case "dump-class":
                     return dumpClass(args);
+                case "dump-all":
+                    return dumpAllClasses(args);
                 case "decompile":
                     return decompileClass(args);
                 case "add-trace":
                     return addTrace(args);
                 case "add-timing":
                     return addTiming(args);
+                case "call-trace":
+                    return callTrace(args);
+                case "instrument":
+                    return instrument(args);
+                case "call-tree":
+                    return callTree(args);
+                case "call-tree-export":
+                    return callTreeExport(args);
+                case "trace-off":
+                    DumperAgent.disableAllTracing();
+                    return "All call tracing, parameter/exception capture, allocation and contention profiling disabled";
+                case "alloc-profile":
+                    return allocProfile(args);
+                case "alloc-report":
+                    return allocReport(args);
+                case "param-capture":
+                    return paramCapture(args);
+                case "param-log":
+                    return paramLog(args);
+                case "exception-profile":
+                    return exceptionProfile(args);
+                case "exception-stats":
+                    return exceptionStats(args);
+                case "contention-profile":
+                    return contentionProfile(args);
+                case "contention-report":
+                    return contentionReport(args);
+                case "probes":
+                    return listProbes();
+                case "probe-on":
+                    return switchProbe(args, true);
+                case "probe-off":
+                    return switchProbe(args, false);
+                case "profile":
+                    return profile(args);
+                case "timing-stats":
+                    return TimingRecorder.report("reset".equalsIgnoreCase(args));
+                case "trace-events":
+                    return traceEvents(args);
+                case "trace-file":
+                    return traceFile(args);
+                case "ref-index":
+                    return buildReferenceIndex(args);
+                case "callers":
+                    return callers(args);
+                case "field-users":
+                    return fieldUsers(args);
+                case "strings":
+                    return findStrings(args);
                 case "restore":
                     return restoreClass(args);
+                case "redefine-batch":
+                    return redefineBatch(args);
+                case "watch":
+                    return watch(args);
+                case "unwatch":
+                    return unwatch();
                 case "restore-all":
                     hotSwapper.restoreAll();
                     return "All classes restored";
@@ -151,6 +243,22 @@ public class AgentServer {
         return "Dumped to: " + path;
     }
 
+    private String dumpAllClasses(String args) throws Exception {
+        if (args.isEmpty()) return "Usage: dump-all <pattern> [batchSize]";
+        
+        String[] parts = args.split("\\s+");
+        String outputDir = RuntimeClassDumper.generateOutputDir();
+        int count;
+        try {
+            int batchSize = parts.length > 1 ? Integer.parseInt(parts[1]) : RuntimeClassDumper.DEFAULT_BATCH_SIZE;
+            count = classDumper.dumpAllClassesMatching(parts[0], outputDir, batchSize);
+        } catch (IllegalArgumentException e) {
+            return "Usage: dump-all <pattern> [batchSize], batchSize must be a positive integer ("
+                + e.getMessage() + ")";
+        }
+        return String.format("Dumped %d classes to: %s/%s", count, outputDir, RuntimeClassDumper.DUMP_JAR_NAME);
+    }
+
     private String decompileClass(String className) throws Exception {
         if (className.isEmpty()) return "Usage: decompile <className>";
         return classDumper.decompileToBytecodeText(className);
@@ -182,6 +290,333 @@ public class AgentServer {
         return "Timing added to " + target;
     }
 
+    /**
+     * 解析 class 或 class.method：整体能找到已加载的类时按类处理
+     */
+    private String[] parseTarget(String target) {
+        int dotIdx = target.lastIndexOf('.');
+        if (dotIdx > 0 && LoadedClassIndex.install(instrumentation).find(target) == null) {
+            return new String[]{target.substring(0, dotIdx), target.substring(dotIdx + 1)};
+        }
+        return new String[]{target, null};
+    }
+
+    private String callTrace(String target) {
+        if (target.isEmpty()) return "Usage: call-trace <className[.methodName]>";
+        
+        String[] parsed = parseTarget(target);
+        DumperAgent.enableTracing(parsed[0], parsed[1]);
+        return "Call tracing enabled for " + target;
+    }
+
+    private String instrument(String args) {
+        String[] parts = args.split("\\s+", 2);
+        if (parts.length < 2) {
+            return "Usage: instrument <mode> <selector>\n"
+                + "  modes: " + Arrays.toString(ClassTransformer.TransformMode.values()).toLowerCase() + "\n"
+                + "  e.g. instrument call-tree com.acme.order.**\n"
+                + "       instrument timing *Service.handle*\n"
+                + "       instrument exception-log re:com\\.acme\\..*Dao#find.*";
+        }
+        
+        ClassTransformer.TransformMode mode;
+        try {
+            mode = DumperAgent.parseMode(parts[0]);
+        } catch (IllegalArgumentException e) {
+            return "Unknown mode: " + parts[0];
+        }
+        Selector selector = Selector.parse(parts[1]);
+        int count = DumperAgent.instrument(selector, mode);
+        return String.format("%s instrumentation enabled for %s (%d loaded class(es) retransformed, "
+            + "classes loaded later are instrumented on load)", mode.name().toLowerCase(), selector, count);
+    }
+
+    private String allocProfile(String target) {
+        if (target.isEmpty()) return "Usage: alloc-profile <className[.methodName]>";
+        
+        String[] parsed = parseTarget(target);
+        DumperAgent.enableAllocationProfiling(parsed[0], parsed[1]);
+        return "Allocation profiling enabled for " + target;
+    }
+
+    private String paramCapture(String target) {
+        if (target.isEmpty()) return "Usage: param-capture <className[.methodName]>";
+        
+        String[] parsed = parseTarget(target);
+        DumperAgent.enableParameterCapture(parsed[0], parsed[1]);
+        return "Parameter capture enabled for " + target;
+    }
+
+    private String paramLog(String args) {
+        int max = args.isEmpty() ? 100 : Integer.parseInt(args);
+        List<String> calls = ArgumentRecorder.take(max);
+        if (calls.isEmpty()) {
+            return "No captured calls (dropped: " + ArgumentRecorder.getDroppedCount() + ")";
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        for (String call : calls) {
+            sb.append(call).append("\n");
+        }
+        sb.append("(dropped: ").append(ArgumentRecorder.getDroppedCount()).append(")");
+        return sb.toString();
+    }
+
+    private String exceptionProfile(String target) {
+        if (target.isEmpty()) return "Usage: exception-profile <className[.methodName]>";
+        
+        String[] parsed = parseTarget(target);
+        DumperAgent.enableExceptionProfiling(parsed[0], parsed[1]);
+        return "Exception profiling enabled for " + target;
+    }
+
+    private String exceptionStats(String args) {
+        int topN = 30;
+        boolean reset = false;
+        for (String arg : args.split("\\s+")) {
+            if (arg.isEmpty()) continue;
+            if ("reset".equalsIgnoreCase(arg)) {
+                reset = true;
+            } else {
+                topN = Integer.parseInt(arg);
+            }
+        }
+        return ExceptionRecorder.report(topN, reset);
+    }
+
+    private String contentionProfile(String target) {
+        if (target.isEmpty()) return "Usage: contention-profile <className[.methodName]>";
+        
+        String[] parsed = parseTarget(target);
+        DumperAgent.enableContentionProfiling(parsed[0], parsed[1]);
+        return "Contention profiling enabled for " + target;
+    }
+
+    private String contentionReport(String args) {
+        int topN = 30;
+        boolean reset = false;
+        for (String arg : args.split("\\s+")) {
+            if (arg.isEmpty()) continue;
+            if ("reset".equalsIgnoreCase(arg)) {
+                reset = true;
+            } else {
+                topN = Integer.parseInt(arg);
+            }
+        }
+        return ContentionRecorder.report(topN, reset);
+    }
+
+    private String allocReport(String args) {
+        int topN = 30;
+        boolean reset = false;
+        for (String arg : args.split("\\s+")) {
+            if (arg.isEmpty()) continue;
+            if ("reset".equalsIgnoreCase(arg)) {
+                reset = true;
+            } else {
+                topN = Integer.parseInt(arg);
+            }
+        }
+        
+        LoadedClassIndex index = LoadedClassIndex.install(instrumentation);
+        String report = AllocationRecorder.report(topN, index::find);
+        if (reset) {
+            AllocationRecorder.reset();
+        }
+        return report;
+    }
+
+    private String callTree(String args) {
+        if ("reset".equalsIgnoreCase(args)) {
+            CallTreeRecorder.reset();
+            return "Call tree reset";
+        }
+        int maxDepth = args.isEmpty() ? 32 : Integer.parseInt(args);
+        return CallTreeRecorder.report(maxDepth);
+    }
+
+    private String callTreeExport(String path) throws IOException {
+        if (path.isEmpty()) return "Usage: call-tree-export <file>";
+        
+        int stacks = CallTreeRecorder.exportCollapsed(Paths.get(path));
+        return String.format("Exported %d collapsed stacks to: %s", stacks, path);
+    }
+
+    private String listProbes() {
+        List<String> probes = ProbeSwitches.list();
+        if (probes.isEmpty()) return "No probes registered";
+        return String.format("%-4s %-4s %s%n", "Id", "On", "Probe") + String.join("\n", probes);
+    }
+
+    private String switchProbe(String name, boolean enabled) {
+        if (name.isEmpty()) return "Usage: " + (enabled ? "probe-on" : "probe-off") + " <probeName|all>";
+        
+        int count = ProbeSwitches.setMatching(name, enabled);
+        if (count == 0) return "Probe not found: " + name;
+        return String.format("%d probe(s) %s", count, enabled ? "enabled" : "disabled");
+    }
+
+    private synchronized String profile(String args) throws IOException {
+        String[] parts = args.isEmpty() ? new String[0] : args.split("\\s+");
+        String action = parts.length > 0 ? parts[0].toLowerCase() : "status";
+        
+        switch (action) {
+            case "start":
+                if (profiler != null && profiler.isRunning()) return "Profiler already running";
+                long interval = parts.length > 1 ? Long.parseLong(parts[1]) : SamplingProfiler.DEFAULT_INTERVAL_MILLIS;
+                profiler = new SamplingProfiler(interval, SamplingProfiler.DEFAULT_MAX_DEPTH);
+                profiler.start();
+                return "Profiler started, sampling every " + interval + "ms";
+            case "stop":
+                if (profiler == null) return "Profiler not started";
+                profiler.stop();
+                return profiler.report(parts.length > 1 ? Integer.parseInt(parts[1]) : 30);
+            case "top":
+                if (profiler == null) return "Profiler not started";
+                return profiler.report(parts.length > 1 ? Integer.parseInt(parts[1]) : 30);
+            case "collapsed":
+                if (profiler == null) return "Profiler not started";
+                if (parts.length < 2) return "Usage: profile collapsed <file>";
+                int stacks = profiler.exportCollapsed(Paths.get(parts[1]));
+                return String.format("Exported %d collapsed stacks to: %s", stacks, parts[1]);
+            case "status":
+                return profiler == null ? "Profiler not started" : profiler.status();
+            default:
+                return "Usage: profile start [intervalMs] | stop [topN] | top [N] | status | collapsed <file>";
+        }
+    }
+
+    private String traceEvents(String args) {
+        int max = args.isEmpty() ? 200 : Integer.parseInt(args);
+        ProbeDrainer.drainNow();
+        
+        List<String> events = recentTraceEvents.take(max);
+        StringBuilder sb = new StringBuilder();
+        for (String event : events) {
+            sb.append(event).append("\n");
+        }
+        sb.append(String.format("Events: %d, dropped: %d", events.size(), TraceRecorder.getDroppedCount()));
+        return sb.toString();
+    }
+
+    private synchronized String traceFile(String args) throws IOException {
+        if (args.isEmpty()) return "Usage: trace-file <path>|off";
+        
+        if (traceFile != null) {
+            TraceRecorder.removeSubscriber(traceFile);
+            ProbeDrainer.drainNow();
+            traceFile.close();
+            traceFile = null;
+        }
+        if ("off".equalsIgnoreCase(args)) {
+            return "Trace file output disabled";
+        }
+        
+        traceFile = new TraceRecorder.FileSubscriber(Paths.get(args));
+        TraceRecorder.addSubscriber(traceFile);
+        return "Trace events written to: " + traceFile.getPath();
+    }
+
+    private String redefineBatch(String args) throws Exception {
+        if (args.isEmpty()) return "Usage: redefine-batch <class-file|dir|jar>...";
+        
+        List<Path> paths = new ArrayList<>();
+        for (String path : args.split("\\s+")) {
+            paths.add(Paths.get(path));
+        }
+        int count = hotSwapper.redefineBatchFromFiles(paths);
+        return "Redefined " + count + " classes in one batch";
+    }
+
+    private synchronized String buildReferenceIndex(String prefix) throws InterruptedException {
+        List<Class<?>> classes = LoadedClassIndex.install(instrumentation)
+            .select(name -> name.startsWith(prefix) && !name.startsWith("com.javadumper."));
+        classes.removeIf(clazz -> !instrumentation.isModifiableClass(clazz));
+        
+        referenceIndex = ReferenceIndex.fromLoadedClasses(classDumper, classes, ForkJoinPool.commonPool());
+        return "Reference index built: " + referenceIndex.stats();
+    }
+
+    private ReferenceIndex referenceIndex() throws InterruptedException {
+        ReferenceIndex index = referenceIndex;
+        if (index == null) {
+            // 首次查询时索引全部已加载类，之后用 ref-index 刷新
+            buildReferenceIndex("");
+            index = referenceIndex;
+        }
+        return index;
+    }
+
+    private String callers(String target) throws InterruptedException {
+        if (target.isEmpty()) return "Usage: callers <class#method[(desc)]|method>";
+        
+        long start = System.nanoTime();
+        List<ReferenceIndex.Reference> refs = referenceIndex().callers(ReferenceIndex.Target.parse(target));
+        return formatReferences("Callers of " + target, refs, start);
+    }
+
+    private String fieldUsers(String target) throws InterruptedException {
+        if (target.isEmpty()) return "Usage: field-users <class#field|field>";
+        
+        long start = System.nanoTime();
+        ReferenceIndex.Target parsed = ReferenceIndex.Target.parse(target);
+        List<ReferenceIndex.Reference> refs = referenceIndex().fieldUsers(parsed.owner, parsed.name);
+        return formatReferences("Users of field " + target, refs, start);
+    }
+
+    private String findStrings(String text) throws InterruptedException {
+        if (text.isEmpty()) return "Usage: strings <text>";
+        
+        long start = System.nanoTime();
+        List<ReferenceIndex.Reference> refs = referenceIndex().strings(text);
+        return formatReferences("String constants containing \"" + text + "\"", refs, start);
+    }
+
+    private String formatReferences(String title, List<ReferenceIndex.Reference> refs, long startNanos) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s: %d reference(s) in %.2fms%n", title, refs.size(),
+            (System.nanoTime() - startNanos) / 1_000_000.0));
+        int shown = 0;
+        for (ReferenceIndex.Reference ref : refs) {
+            if (shown++ >= 200) {
+                sb.append("  ... ").append(refs.size() - 200).append(" more\n");
+                break;
+            }
+            sb.append("  ").append(ref).append("\n");
+        }
+        return sb.toString().trim();
+    }
+
+    private synchronized String watch(String args) throws IOException {
+        String[] parts = args.isEmpty() ? new String[0] : args.split("\\s+");
+        if (parts.length == 0) {
+            return classWatcher == null ? "Usage: watch <classes-dir> [debounceMs] [partial]" : classWatcher.status();
+        }
+        if (classWatcher != null && classWatcher.isRunning()) {
+            return "Already watching " + classWatcher.getRoot() + ", run unwatch first";
+        }
+        long debounce = ClassDirectoryWatcher.DEFAULT_DEBOUNCE_MILLIS;
+        boolean partial = false;
+        for (int i = 1; i < parts.length; i++) {
+            if ("partial".equalsIgnoreCase(parts[i])) {
+                partial = true;
+            } else {
+                debounce = Long.parseLong(parts[i]);
+            }
+        }
+        ClassDirectoryWatcher watcher = new ClassDirectoryWatcher(hotSwapper, Paths.get(parts[0]), debounce, partial);
+        watcher.start();
+        classWatcher = watcher;
+        return "Watching " + watcher.getRoot() + " for changed classes, debounce " + debounce + "ms"
+            + (partial ? ", partial apply on batch failure" : "");
+    }
+
+    private synchronized String unwatch() {
+        if (classWatcher == null || !classWatcher.isRunning()) return "Not watching";
+        classWatcher.stop();
+        return classWatcher.status();
+    }
+
     private String restoreClass(String className) throws Exception {
         if (className.isEmpty()) return "Usage: restore <className>";
         
@@ -201,13 +636,23 @@ public class AgentServer {
             "Heap Max: %d MB%n" +
             "Available Processors: %d%n" +
             "Redefine Supported: %s%n" +
-            "Retransform Supported: %s",
+            "Retransform Supported: %s%n" +
+            "Transform Dispatcher: %s%n" +
+            "Type Hierarchy Cache: %s%n" +
+            "Transform Cache: %s%n" +
+            "Decompile Cache: %s%n" +
+            "Original Bytecode Store: %s",
             instrumentation.getAllLoadedClasses().length,
             (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024),
             rt.maxMemory() / (1024 * 1024),
             rt.availableProcessors(),
             instrumentation.isRedefineClassesSupported(),
-            instrumentation.isRetransformClassesSupported()
+            instrumentation.isRetransformClassesSupported(),
+            TransformDispatcher.install(instrumentation).stats(),
+            TypeHierarchyCache.install(instrumentation).stats(),
+            TransformCache.shared().stats(),
+            DecompileCache.shared().stats(),
+            hotSwapper.getStoreStats()
         );
     }
 }
@@ -1,35 +1,124 @@
 package com.javadumper.agent;
 
+import com.javadumper.core.ProbeGuard;
+import com.javadumper.core.Selector;
+import com.javadumper.core.SelectorMatcher;
+import com.javadumper.core.TransformRule;
+import com.javadumper.core.TryFinallyAdviceAdapter;
+import com.javadumper.probe.AllocationRecorder;
+import com.javadumper.probe.ArgumentRecorder;
+import com.javadumper.probe.CallTreeRecorder;
+import com.javadumper.probe.ContentionRecorder;
+import com.javadumper.probe.ExceptionRecorder;
+import com.javadumper.probe.MethodRegistry;
+import com.javadumper.probe.ProbeSwitches;
+import com.javadumper.probe.TimingRecorder;
+import com.javadumper.probe.TraceRecorder;
 import org.objectweb.asm.*;
-import org.objectweb.asm.commons.AdviceAdapter;
 
-import java.lang.instrument.ClassFileTransformer;
-import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Absurdity 457676887
  * @since 26/01/19
  */
-public class ClassTransformer implements ClassFileTransformer {
+public class ClassTransformer implements TransformRule {
     
-    private final Set<String> targetClasses;
-    private final Set<String> targetMethods;
+    private final SelectorMatcher matcher;
     private final TransformMode mode;
+    private final int probeId;
+    private final Set<String> transformedClasses = ConcurrentHashMap.newKeySet();
+    private final Set<String> rewrittenClasses = ConcurrentHashMap.newKeySet();
     
     public enum TransformMode {
         TRACE,          // 方法追踪
         TIMING,         // 性能计时
         PARAMETER_LOG,  // 参数日志
         RETURN_LOG,     // 返回值日志
-        EXCEPTION_LOG   // 异常日志
+        EXCEPTION_LOG,  // 异常日志
+        CALL_TREE,      // 调用树聚合
+        ALLOCATION,     // 分配点统计
+        CONTENTION      // 锁等待统计
     }
     
     public ClassTransformer(Set<String> targetClasses, Set<String> targetMethods, TransformMode mode) {
-        this.targetClasses = targetClasses;
-        this.targetMethods = targetMethods;
+        this(targetClasses, targetMethods, mode, probeName(targetClasses, targetMethods, mode));
+    }
+
+    /**
+     * @param probeName 注入探针的开关名，可通过 ProbeSwitches 在运行时开关
+     */
+    public ClassTransformer(Set<String> targetClasses, Set<String> targetMethods, TransformMode mode,
+                            String probeName) {
+        this(new SelectorMatcher(toSelectors(targetClasses, targetMethods)), mode, probeName);
+    }
+
+    /**
+     * 按选择器批量选中类和方法，探针名为 模式:选择器
+     */
+    public ClassTransformer(Selector selector, TransformMode mode) {
+        this(SelectorMatcher.of(selector), mode, mode.name().toLowerCase() + ":" + selector);
+    }
+
+    public ClassTransformer(SelectorMatcher matcher, TransformMode mode, String probeName) {
+        this.matcher = matcher;
         this.mode = mode;
+        this.probeId = ProbeSwitches.register(probeName);
+    }
+
+    private static List<Selector> toSelectors(Set<String> targetClasses, Set<String> targetMethods) {
+        List<Selector> selectors = new ArrayList<>();
+        for (String className : targetClasses) {
+            if (targetMethods.isEmpty()) {
+                selectors.add(Selector.exact(className, null));
+            }
+            for (String methodName : targetMethods) {
+                selectors.add(Selector.exact(className, methodName));
+            }
+        }
+        return selectors;
+    }
+
+    private static String probeName(Set<String> targetClasses, Set<String> targetMethods, TransformMode mode) {
+        String classes = String.join(",", targetClasses).replace('/', '.');
+        String methods = targetMethods.isEmpty() ? "*" : String.join(",", targetMethods);
+        return mode.name().toLowerCase() + ":" + classes + "." + methods;
+    }
+
+    public int getProbeId() {
+        return probeId;
+    }
+
+    public TransformMode getMode() {
+        return mode;
+    }
+
+    /**
+     * 类名（点分形式）是否被本转换器选中
+     */
+    public boolean selects(String className) {
+        return matcher.matchesClass(className.replace('.', '/'));
+    }
+
+    /**
+     * 已经注入过探针的类（点分形式），撤销时据此重转换
+     */
+    public Set<String> getTransformedClasses() {
+        return Collections.unmodifiableSet(transformedClasses);
+    }
+
+    /**
+     * 加载期去掉了 synchronized 修饰符的类：重转换不能改回修饰符，撤销时只能保留规则并关闭探针
+     */
+    public boolean hasRewrittenModifiers() {
+        return !rewrittenClasses.isEmpty();
     }
 
     public static ClassTransformer createTracer(String className, String methodName) {
@@ -44,7 +133,7 @@ public class ClassTransformer implements ClassFileTransformer {
         return new ClassTransformer(classes, methods, TransformMode.TRACE);
     }
 
-    public static ClassTransformer createTimer(String className, String methodName) {
+    public static ClassTransformer createCallTracer(String className, String methodName) {
         Set<String> classes = new HashSet<>();
         classes.add(className.replace('.', '/'));
         
@@ -53,88 +142,624 @@ public class ClassTransformer implements ClassFileTransformer {
             methods.add(methodName);
         }
         
-        return new ClassTransformer(classes, methods, TransformMode.TIMING);
+        return new ClassTransformer(classes, methods, TransformMode.CALL_TREE);
     }
-    
-    @Override
-    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
-                          ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+
+    public static ClassTransformer createAllocationProfiler(String className, String methodName) {
+        Set<String> classes = new HashSet<>();
+        classes.add(className.replace('.', '/'));
         
-        if (className == null || !targetClasses.contains(className)) {
-            return null;
+        Set<String> methods = new HashSet<>();
+        if (methodName != null && !methodName.isEmpty()) {
+            methods.add(methodName);
         }
         
-        try {
-            System.out.println("[ClassTransformer] Transforming: " + className);
-            
-            ClassReader reader = new ClassReader(classfileBuffer);
-            ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-            ClassVisitor visitor = new TransformingClassVisitor(writer, targetMethods, mode);
-            
-            reader.accept(visitor, ClassReader.EXPAND_FRAMES);
-            
-            return writer.toByteArray();
-            
-        } catch (Exception e) {
-            System.err.println("[ClassTransformer] Error transforming " + className + ": " + e.getMessage());
-            e.printStackTrace();
-            return null;
+        return new ClassTransformer(classes, methods, TransformMode.ALLOCATION);
+    }
+
+    public static ClassTransformer createContentionProfiler(String className, String methodName) {
+        Set<String> classes = new HashSet<>();
+        classes.add(className.replace('.', '/'));
+        
+        Set<String> methods = new HashSet<>();
+        if (methodName != null && !methodName.isEmpty()) {
+            methods.add(methodName);
         }
+        
+        return new ClassTransformer(classes, methods, TransformMode.CONTENTION);
+    }
+
+    public static ClassTransformer createTimer(String className, String methodName) {
+        Set<String> classes = new HashSet<>();
+        classes.add(className.replace('.', '/'));
+        
+        Set<String> methods = new HashSet<>();
+        if (methodName != null && !methodName.isEmpty()) {
+            methods.add(methodName);
+        }
+        
+        return new ClassTransformer(classes, methods, TransformMode.TIMING);
+    }
+    
+    @Override
+    public List<Selector> selectors() {
+        return matcher.selectors();
+    }
+
+    @Override
+    public ClassVisitor visitor(ClassVisitor next, String className, SelectorMatcher.MethodFilter methods,
+                                boolean loading) {
+        System.out.println("[ClassTransformer] Transforming: " + className + " (" + mode + ")");
+        transformedClasses.add(className.replace('/', '.'));
+        return new TransformingClassVisitor(next, methods, mode, probeId, loading, rewrittenClasses);
+    }
+
+    /**
+     * 异常和分配统计只关心原始代码，排在包裹型探针之前
+     */
+    @Override
+    public int phase() {
+        return mode == TransformMode.EXCEPTION_LOG || mode == TransformMode.ALLOCATION ? PHASE_SCAN : PHASE_WRAP;
+    }
+
+    /**
+     * 锁统计的改写取决于类是否在加载期被改写过，不缓存
+     */
+    @Override
+    public String fingerprint() {
+        return mode == TransformMode.CONTENTION ? null : mode.name() + "#" + probeId;
+    }
+
+    @Override
+    public void reused(String className, boolean loading) {
+        transformedClasses.add(className.replace('/', '.'));
+    }
+
+    @Override
+    public String toString() {
+        return mode.name().toLowerCase() + ":" + matcher;
     }
 
     private static class TransformingClassVisitor extends ClassVisitor {
         
-        private final Set<String> targetMethods;
+        private final SelectorMatcher.MethodFilter targetMethods;
         private final TransformMode mode;
+        private final int probeId;
+        private final boolean loading;
+        private final Set<String> rewrittenClasses;
         private String className;
+        private int version;
+        private int skippedSynchronized;
         
-        public TransformingClassVisitor(ClassVisitor cv, Set<String> targetMethods, TransformMode mode) {
+        public TransformingClassVisitor(ClassVisitor cv, SelectorMatcher.MethodFilter targetMethods,
+                                        TransformMode mode, int probeId, boolean loading,
+                                        Set<String> rewrittenClasses) {
             super(Opcodes.ASM9, cv);
             this.targetMethods = targetMethods;
             this.mode = mode;
+            this.probeId = probeId;
+            this.loading = loading;
+            this.rewrittenClasses = rewrittenClasses;
         }
         
         @Override
         public void visit(int version, int access, String name, String signature, 
                          String superName, String[] interfaces) {
             this.className = name;
+            this.version = version;
             super.visit(version, access, name, signature, superName, interfaces);
         }
         
+        @Override
+        public void visitEnd() {
+            if (skippedSynchronized > 0) {
+                System.out.println("[ClassTransformer] " + className + ": " + skippedSynchronized
+                    + " synchronized method(s) not instrumented, modifiers cannot change on retransform");
+            }
+            super.visitEnd();
+        }
+        
         @Override
         public MethodVisitor visitMethod(int access, String name, String descriptor,
                                         String signature, String[] exceptions) {
+            if (mode == TransformMode.CONTENTION) {
+                return visitContentionMethod(access, name, descriptor, signature, exceptions);
+            }
+            
             MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
             
+            if (mode == TransformMode.EXCEPTION_LOG) {
+                if (!targetMethods.matches(name, descriptor)) {
+                    return mv;
+                }
+                return new ExceptionMethodVisitor(mv, className, name, descriptor, version, probeId);
+            }
+            
+            if (mode == TransformMode.ALLOCATION) {
+                // 构造器和静态初始化里的分配同样需要统计，且不需要进出探针
+                if (!targetMethods.matches(name, descriptor)) {
+                    return mv;
+                }
+                return new AllocationMethodVisitor(mv, className, name, descriptor, version, probeId);
+            }
+            
             if (name.equals("<init>") || name.equals("<clinit>")) {
                 return mv;
             }
             
-            if (!targetMethods.isEmpty() && !targetMethods.contains(name)) {
+            if (!targetMethods.matches(name, descriptor)) {
                 return mv;
             }
             
-            return new TransformingMethodVisitor(mv, access, name, descriptor, className, mode);
+            return new TransformingMethodVisitor(mv, access, name, descriptor, className, mode, version, probeId);
+        }
+        
+        private MethodVisitor visitContentionMethod(int access, String name, String descriptor,
+                                                    String signature, String[] exceptions) {
+            boolean selected = targetMethods.matches(name, descriptor);
+            boolean hasCode = (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0;
+            boolean synchronizedMethod = selected && hasCode && (access & Opcodes.ACC_SYNCHRONIZED) != 0;
+            
+            // 只有首次加载时能去掉 ACC_SYNCHRONIZED 改成显式加锁，重转换不允许改方法修饰符，
+            // 加载期已改写过的类在之后的重转换中必须照样改写；
+            // 静态方法要 LDC 类常量，需要 49 以上的类文件版本
+            boolean rewritable = loading || rewrittenClasses.contains(className.replace('/', '.'));
+            boolean rewrite = synchronizedMethod && rewritable && (version & 0xFFFF) >= Opcodes.V1_5;
+            if (synchronizedMethod && !rewrite) {
+                skippedSynchronized++;
+            }
+            if (rewrite) {
+                rewrittenClasses.add(className.replace('/', '.'));
+            }
+            
+            int methodAccess = rewrite ? access & ~Opcodes.ACC_SYNCHRONIZED : access;
+            MethodVisitor mv = super.visitMethod(methodAccess, name, descriptor, signature, exceptions);
+            if (!selected || !hasCode) {
+                return mv;
+            }
+            return new ContentionMethodVisitor(mv, methodAccess, name, descriptor, className, rewrite,
+                version, probeId);
         }
     }
 
-    private static class TransformingMethodVisitor extends AdviceAdapter {
+    private static class ContentionMethodVisitor extends TryFinallyAdviceAdapter {
+        
+        private static final String CONTENTION_RECORDER = Type.getInternalName(ContentionRecorder.class);
+        private static final Type OBJECT_TYPE = Type.getType(Object.class);
+        
+        private final String className;
+        private final boolean synchronizedMethod;
+        private final boolean staticMethod;
+        private final int methodId;
+        private final int classVersion;
+        private final int probeId;
+        private final Map<Integer, Integer> ordinals = new HashMap<>();
+        private int line;
+        private int methodLockLocal = -1;
+        private int lockLocal = -1;
+        private int startTimeLocal = -1;
+        
+        public ContentionMethodVisitor(MethodVisitor mv, int access, String name, String descriptor,
+                                       String className, boolean synchronizedMethod,
+                                       int classVersion, int probeId) {
+            super(Opcodes.ASM9, mv, access, name, descriptor);
+            this.className = className;
+            this.synchronizedMethod = synchronizedMethod;
+            this.staticMethod = (access & ACC_STATIC) != 0;
+            this.methodId = MethodRegistry.register(className, name, descriptor);
+            this.classVersion = classVersion;
+            this.probeId = probeId;
+        }
+        
+        @Override
+        protected boolean wrapsBody() {
+            return synchronizedMethod;
+        }
+        
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            this.line = line;
+            super.visitLineNumber(line, start);
+        }
+        
+        @Override
+        protected void onEnter() {
+            if (!synchronizedMethod) {
+                return;
+            }
+            // 原本由 ACC_SYNCHRONIZED 隐式获取的锁：this 或类对象
+            if (staticMethod) {
+                mv.visitLdcInsn(Type.getObjectType(className));
+            } else {
+                mv.visitVarInsn(ALOAD, 0);
+            }
+            methodLockLocal = newLocal(OBJECT_TYPE);
+            timedMonitorEnter(methodLockLocal, ContentionRecorder.KIND_METHOD, false);
+        }
+        
+        @Override
+        protected void onNormalExit(int opcode) {
+            if (synchronizedMethod) {
+                mv.visitVarInsn(ALOAD, methodLockLocal);
+                mv.visitInsn(MONITOREXIT);
+            }
+        }
+        
+        @Override
+        protected void onExceptionalExit() {
+            if (synchronizedMethod) {
+                mv.visitVarInsn(ALOAD, methodLockLocal);
+                mv.visitInsn(MONITOREXIT);
+            }
+        }
+        
+        @Override
+        public void visitInsn(int opcode) {
+            if (opcode == MONITORENTER) {
+                if (lockLocal < 0) {
+                    lockLocal = newLocal(OBJECT_TYPE);
+                }
+                timedMonitorEnter(lockLocal, ContentionRecorder.KIND_BLOCK, true);
+                return;
+            }
+            super.visitInsn(opcode);
+        }
+        
+        /**
+         * 栈顶是锁对象：
+         * lock = obj;
+         * if (probe on) { start = System.nanoTime(); monitorenter;
+         *     ContentionRecorder.record(lock, System.nanoTime() - start, siteId) }
+         * else { monitorenter }
+         */
+        private void timedMonitorEnter(int local, int kind, boolean original) {
+            if (startTimeLocal < 0) {
+                startTimeLocal = newLocal(Type.LONG_TYPE);
+            }
+            Label plain = new Label();
+            Label done = new Label();
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ASTORE, local);
+            ProbeGuard.jumpIfDisabled(mv, classVersion, probeId, plain);
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+            mv.visitVarInsn(LSTORE, startTimeLocal);
+            if (original) {
+                super.visitInsn(MONITORENTER);
+            } else {
+                mv.visitInsn(MONITORENTER);
+            }
+            mv.visitVarInsn(ALOAD, local);
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+            mv.visitVarInsn(LLOAD, startTimeLocal);
+            mv.visitInsn(LSUB);
+            int ordinal = ordinals.merge(line, 1, Integer::sum);
+            push(ContentionRecorder.registerSite(methodId, line, ordinal, kind));
+            mv.visitMethodInsn(INVOKESTATIC, CONTENTION_RECORDER, "record", "(Ljava/lang/Object;JI)V", false);
+            mv.visitJumpInsn(GOTO, done);
+            mv.visitLabel(plain);
+            mv.visitInsn(MONITORENTER);
+            mv.visitLabel(done);
+        }
+    }
+
+    private static class ExceptionMethodVisitor extends MethodVisitor {
+        
+        private static final String EXCEPTION_RECORDER = Type.getInternalName(ExceptionRecorder.class);
+        
+        private final int methodId;
+        private final int classVersion;
+        private final int probeId;
+        private final Set<Label> catchHandlers = new HashSet<>();
+        private boolean atHandler;
+        
+        public ExceptionMethodVisitor(MethodVisitor mv, String className, String name, String descriptor,
+                                      int classVersion, int probeId) {
+            super(Opcodes.ASM9, mv);
+            this.methodId = MethodRegistry.register(className, name, descriptor);
+            this.classVersion = classVersion;
+            this.probeId = probeId;
+        }
+        
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+            // type 为 null 的是 finally / synchronized 的兜底处理器，异常会被重新抛出，不算捕获
+            if (type != null) {
+                catchHandlers.add(handler);
+            }
+            super.visitTryCatchBlock(start, end, handler, type);
+        }
+        
+        @Override
+        public void visitLabel(Label label) {
+            super.visitLabel(label);
+            if (catchHandlers.contains(label)) {
+                atHandler = true;
+            }
+        }
+        
+        /**
+         * 处理器入口的栈帧之后、第一条指令之前：栈上只有异常对象
+         */
+        private void beforeInstruction() {
+            if (atHandler) {
+                atHandler = false;
+                record("caught");
+            }
+        }
+        
+        /**
+         * if (probe on) ExceptionRecorder.xxx(exception, methodId)，异常对象留在栈上
+         */
+        private void record(String method) {
+            Label skip = new Label();
+            ProbeGuard.jumpIfDisabled(mv, classVersion, probeId, skip);
+            super.visitInsn(Opcodes.DUP);
+            pushMethodId();
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, EXCEPTION_RECORDER, method,
+                "(Ljava/lang/Throwable;I)V", false);
+            super.visitLabel(skip);
+        }
+        
+        private void pushMethodId() {
+            if (methodId <= Short.MAX_VALUE) {
+                super.visitIntInsn(methodId <= Byte.MAX_VALUE ? Opcodes.BIPUSH : Opcodes.SIPUSH, methodId);
+            } else {
+                super.visitLdcInsn(methodId);
+            }
+        }
+        
+        @Override
+        public void visitInsn(int opcode) {
+            beforeInstruction();
+            if (opcode == Opcodes.ATHROW) {
+                record("thrown");
+            }
+            super.visitInsn(opcode);
+        }
+        
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            beforeInstruction();
+            super.visitIntInsn(opcode, operand);
+        }
+        
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            beforeInstruction();
+            super.visitVarInsn(opcode, var);
+        }
+        
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            beforeInstruction();
+            super.visitTypeInsn(opcode, type);
+        }
+        
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            beforeInstruction();
+            super.visitFieldInsn(opcode, owner, name, descriptor);
+        }
+        
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            beforeInstruction();
+            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+        }
+        
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+                                           Object... bootstrapMethodArguments) {
+            beforeInstruction();
+            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+        }
+        
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            beforeInstruction();
+            super.visitJumpInsn(opcode, label);
+        }
+        
+        @Override
+        public void visitLdcInsn(Object value) {
+            beforeInstruction();
+            super.visitLdcInsn(value);
+        }
+        
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            beforeInstruction();
+            super.visitIincInsn(var, increment);
+        }
+        
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            beforeInstruction();
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+        
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            beforeInstruction();
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+        
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            beforeInstruction();
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+        }
+    }
+
+    private static class AllocationMethodVisitor extends MethodVisitor {
+        
+        private static final String ALLOCATION_RECORDER = Type.getInternalName(AllocationRecorder.class);
+        
+        private final int methodId;
+        private final int classVersion;
+        private final int probeId;
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        private int line;
+        
+        public AllocationMethodVisitor(MethodVisitor mv, String className, String name, String descriptor,
+                                       int classVersion, int probeId) {
+            super(Opcodes.ASM9, mv);
+            this.methodId = MethodRegistry.register(className, name, descriptor);
+            this.classVersion = classVersion;
+            this.probeId = probeId;
+        }
+        
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            this.line = line;
+            super.visitLineNumber(line, start);
+        }
+        
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            if (opcode == Opcodes.NEW) {
+                // AllocationRecorder.record(siteId)
+                record(type, AllocationRecorder.KIND_OBJECT, false, "record", "(I)V");
+            } else if (opcode == Opcodes.ANEWARRAY) {
+                // AllocationRecorder.recordArray(length, siteId)，操作数是元素类型，拼成数组描述符
+                String arrayDescriptor = type.startsWith("[") ? "[" + type : "[L" + type + ";";
+                record(arrayDescriptor, AllocationRecorder.KIND_ARRAY, true, "recordArray", "(II)V");
+            }
+            super.visitTypeInsn(opcode, type);
+        }
+        
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            if (opcode == Opcodes.NEWARRAY) {
+                record(primitiveArrayDescriptor(operand), AllocationRecorder.KIND_ARRAY, true, "recordArray", "(II)V");
+            }
+            super.visitIntInsn(opcode, operand);
+        }
+        
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+            // 各维长度都在栈上，分配完成后再按结果统计
+            record(descriptor, AllocationRecorder.KIND_MULTI_ARRAY, true, "recordMultiArray", "(Ljava/lang/Object;I)V");
+        }
+        
+        private void record(String type, int kind, boolean dupTop, String method, String descriptor) {
+            Label skip = new Label();
+            ProbeGuard.jumpIfDisabled(mv, classVersion, probeId, skip);
+            if (dupTop) {
+                super.visitInsn(Opcodes.DUP);
+            }
+            pushSite(type, kind);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, ALLOCATION_RECORDER, method, descriptor, false);
+            super.visitLabel(skip);
+        }
+        
+        private void pushSite(String type, int kind) {
+            String key = line + ":" + type;
+            int ordinal = ordinals.merge(key, 1, Integer::sum);
+            int siteId = AllocationRecorder.registerSite(methodId, line, ordinal, type, kind);
+            if (siteId <= Short.MAX_VALUE) {
+                super.visitIntInsn(siteId <= Byte.MAX_VALUE ? Opcodes.BIPUSH : Opcodes.SIPUSH, siteId);
+            } else {
+                super.visitLdcInsn(siteId);
+            }
+        }
+        
+        private static String primitiveArrayDescriptor(int operand) {
+            switch (operand) {
+                case Opcodes.T_BOOLEAN: return "[Z";
+                case Opcodes.T_CHAR: return "[C";
+                case Opcodes.T_FLOAT: return "[F";
+                case Opcodes.T_DOUBLE: return "[D";
+                case Opcodes.T_BYTE: return "[B";
+                case Opcodes.T_SHORT: return "[S";
+                case Opcodes.T_INT: return "[I";
+                default: return "[J";
+            }
+        }
+    }
+
+    private static class TransformingMethodVisitor extends TryFinallyAdviceAdapter {
+        
+        private static final String TRACE_RECORDER = Type.getInternalName(TraceRecorder.class);
+        private static final String TIMING_RECORDER = Type.getInternalName(TimingRecorder.class);
+        private static final String CALL_TREE_RECORDER = Type.getInternalName(CallTreeRecorder.class);
+        private static final String ARGUMENT_RECORDER = Type.getInternalName(ArgumentRecorder.class);
+        private static final String ARGUMENT_BUFFER = Type.getInternalName(ArgumentRecorder.Buffer.class);
         
         private final String className;
         private final String methodName;
         private final TransformMode mode;
+        private final int methodId;
+        private final int classVersion;
+        private final int probeId;
         private int startTimeLocal = -1;
+        private int enabledLocal = -1;
         
         public TransformingMethodVisitor(MethodVisitor mv, int access, String name, 
-                                        String descriptor, String className, TransformMode mode) {
+                                        String descriptor, String className, TransformMode mode,
+                                        int classVersion, int probeId) {
             super(Opcodes.ASM9, mv, access, name, descriptor);
             this.className = className;
             this.methodName = name;
             this.mode = mode;
+            this.methodId = MethodRegistry.register(className, name, descriptor);
+            this.classVersion = classVersion;
+            this.probeId = probeId;
+        }
+        
+        @Override
+        protected boolean wrapsBody() {
+            // 只在入口记录参数，不需要异常出口
+            return mode != TransformMode.PARAMETER_LOG;
+        }
+        
+        /**
+         * 入口处读一次开关并存到局部变量，出口按同一个值判断，
+         * 方法执行期间切换开关也不会出现只有 enter 或只有 exit 的记录
+         */
+        @Override
+        protected void onEnter() {
+            Label skip = new Label();
+            if (mode == TransformMode.TIMING) {
+                startTimeLocal = newLocal(Type.LONG_TYPE);
+                mv.visitInsn(LCONST_0);
+                mv.visitVarInsn(LSTORE, startTimeLocal);
+            }
+            ProbeGuard.push(mv, classVersion, probeId);
+            if (wrapsBody()) {
+                enabledLocal = newLocal(Type.BOOLEAN_TYPE);
+                mv.visitInsn(DUP);
+                mv.visitVarInsn(ISTORE, enabledLocal);
+            }
+            mv.visitJumpInsn(IFEQ, skip);
+            addEnterProbe();
+            mv.visitLabel(skip);
         }
         
         @Override
-        protected void onMethodEnter() {
+        protected void onNormalExit(int opcode) {
+            if (enabledLocal < 0) {
+                // 只有入口探针（PARAMETER_LOG）
+                return;
+            }
+            Label skip = new Label();
+            mv.visitVarInsn(ILOAD, enabledLocal);
+            mv.visitJumpInsn(IFEQ, skip);
+            addNormalExitProbe(opcode);
+            mv.visitLabel(skip);
+        }
+        
+        @Override
+        protected void onExceptionalExit() {
+            Label skip = new Label();
+            mv.visitVarInsn(ILOAD, enabledLocal);
+            mv.visitJumpInsn(IFEQ, skip);
+            addExceptionalExitProbe();
+            mv.visitLabel(skip);
+        }
+        
+        private void addEnterProbe() {
             switch (mode) {
                 case TRACE:
                     addTraceEntry();
@@ -145,95 +770,104 @@ public class ClassTransformer implements ClassFileTransformer {
                 case PARAMETER_LOG:
                     addParameterLogging();
                     break;
+                case CALL_TREE:
+                    addCallTreeProbe("enter");
+                    break;
                 default:
                     addTraceEntry();
             }
         }
         
-        @Override
-        protected void onMethodExit(int opcode) {
+        private void addNormalExitProbe(int opcode) {
             switch (mode) {
                 case TRACE:
                     addTraceExit(opcode);
                     break;
                 case TIMING:
-                    addTimingEnd();
+                    addTimingEnd("record");
                     break;
                 case RETURN_LOG:
-                    if (opcode != ATHROW) {
-                        addReturnLogging(opcode);
-                    }
+                    addReturnLogging(opcode);
+                    break;
+                case CALL_TREE:
+                    addCallTreeProbe("exit");
                     break;
                 default:
                     addTraceExit(opcode);
             }
         }
         
+        private void addExceptionalExitProbe() {
+            switch (mode) {
+                case TIMING:
+                    addTimingEnd("recordThrow");
+                    break;
+                case RETURN_LOG:
+                    break;
+                case CALL_TREE:
+                    addCallTreeProbe("exit");
+                    break;
+                default:
+                    addTraceExit(ATHROW);
+            }
+        }
+        
         private void addTraceEntry() {
-            // System.out.println("[TRACE] >> ClassName.methodName")
-            mv.visitFieldInsn(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
-            mv.visitLdcInsn("[TRACE] >> " + className.replace('/', '.') + "." + methodName);
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", 
-                "(Ljava/lang/String;)V", false);
+            // TraceRecorder.enter(methodId)
+            push(methodId);
+            mv.visitMethodInsn(INVOKESTATIC, TRACE_RECORDER, "enter", "(I)V", false);
         }
         
         private void addTraceExit(int opcode) {
-            String exitType = opcode == ATHROW ? "EXCEPTION" : "RETURN";
-            mv.visitFieldInsn(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
-            mv.visitLdcInsn("[TRACE] << " + className.replace('/', '.') + "." + methodName + " (" + exitType + ")");
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", 
-                "(Ljava/lang/String;)V", false);
+            push(methodId);
+            mv.visitMethodInsn(INVOKESTATIC, TRACE_RECORDER, 
+                opcode == ATHROW ? "exitExceptionally" : "exit", "(I)V", false);
         }
         
         private void addTimingStart() {
-            // long startTime = System.nanoTime();
-            startTimeLocal = newLocal(Type.LONG_TYPE);
+            // startTime = System.nanoTime();
             mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
             mv.visitVarInsn(LSTORE, startTimeLocal);
         }
         
-        private void addTimingEnd() {
-            // long duration = System.nanoTime() - startTime;
-            // System.out.println("[TIMING] ClassName.methodName took " + (duration / 1000000.0) + " ms");
+        private void addTimingEnd(String recordMethod) {
+            // TimingRecorder.record(methodId, System.nanoTime() - startTime)
+            push(methodId);
             mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
             mv.visitVarInsn(LLOAD, startTimeLocal);
             mv.visitInsn(LSUB);
-            
-            int durationLocal = newLocal(Type.LONG_TYPE);
-            mv.visitVarInsn(LSTORE, durationLocal);
-            
-            mv.visitFieldInsn(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
-            
-            mv.visitTypeInsn(NEW, "java/lang/StringBuilder");
-            mv.visitInsn(DUP);
-            mv.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
-            
-            mv.visitLdcInsn("[TIMING] " + className.replace('/', '.') + "." + methodName + " took ");
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", 
-                "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-            
-            mv.visitVarInsn(LLOAD, durationLocal);
-            mv.visitInsn(L2D);
-            mv.visitLdcInsn(1000000.0);
-            mv.visitInsn(DDIV);
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", 
-                "(D)Ljava/lang/StringBuilder;", false);
-            
-            mv.visitLdcInsn(" ms");
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", 
-                "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-            
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", 
-                "()Ljava/lang/String;", false);
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", 
-                "(Ljava/lang/String;)V", false);
+            mv.visitMethodInsn(INVOKESTATIC, TIMING_RECORDER, recordMethod, "(IJ)V", false);
+        }
+        
+        private void addCallTreeProbe(String probe) {
+            // CallTreeRecorder.enter(methodId) / CallTreeRecorder.exit(methodId)
+            push(methodId);
+            mv.visitMethodInsn(INVOKESTATIC, CALL_TREE_RECORDER, probe, "(I)V", false);
         }
         
         private void addParameterLogging() {
-            mv.visitFieldInsn(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
-            mv.visitLdcInsn("[PARAMS] " + className.replace('/', '.') + "." + methodName + " called");
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", 
-                "(Ljava/lang/String;)V", false);
+            // ArgumentRecorder.begin(methodId).putX(arg0)...putX(argN).commit()
+            push(methodId);
+            mv.visitMethodInsn(INVOKESTATIC, ARGUMENT_RECORDER, "begin", "(I)L" + ARGUMENT_BUFFER + ";", false);
+            Type[] argumentTypes = Type.getArgumentTypes(methodDesc);
+            for (int i = 0; i < argumentTypes.length; i++) {
+                loadArg(i);
+                String put;
+                String desc;
+                switch (argumentTypes[i].getSort()) {
+                    case Type.BOOLEAN: put = "putBoolean"; desc = "Z"; break;
+                    case Type.BYTE: put = "putByte"; desc = "B"; break;
+                    case Type.CHAR: put = "putChar"; desc = "C"; break;
+                    case Type.SHORT: put = "putShort"; desc = "S"; break;
+                    case Type.INT: put = "putInt"; desc = "I"; break;
+                    case Type.LONG: put = "putLong"; desc = "J"; break;
+                    case Type.FLOAT: put = "putFloat"; desc = "F"; break;
+                    case Type.DOUBLE: put = "putDouble"; desc = "D"; break;
+                    default: put = "putObject"; desc = "Ljava/lang/Object;";
+                }
+                mv.visitMethodInsn(INVOKEVIRTUAL, ARGUMENT_BUFFER, put, "(" + desc + ")L" + ARGUMENT_BUFFER + ";", false);
+            }
+            mv.visitMethodInsn(INVOKEVIRTUAL, ARGUMENT_BUFFER, "commit", "()V", false);
         }
         
         private void addReturnLogging(int opcode) {
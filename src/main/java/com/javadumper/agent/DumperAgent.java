@@ -1,17 +1,24 @@
 package com.javadumper.agent;
 
 import com.javadumper.core.HotSwapper;
+import com.javadumper.core.LoadedClassIndex;
 import com.javadumper.core.RuntimeClassDumper;
+import com.javadumper.core.Selector;
+import com.javadumper.core.TransformDispatcher;
+import com.javadumper.core.TransformRule;
+import com.javadumper.probe.CallTreeRecorder;
+import com.javadumper.probe.ProbeSwitches;
 
-import java.lang.instrument.ClassFileTransformer;
+import java.io.IOException;
 import java.lang.instrument.Instrumentation;
 import java.lang.instrument.UnmodifiableClassException;
-import java.security.ProtectionDomain;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Absurdity 457676887
@@ -20,11 +27,11 @@ import java.util.concurrent.ConcurrentHashMap;
 public class DumperAgent {
     
     private static Instrumentation instrumentation;
-    private static final Map<String, byte[]> originalClasses = new ConcurrentHashMap<>();
-    private static final List<ClassFileTransformer> transformers = new ArrayList<>();
+    private static TransformDispatcher dispatcher;
     private static AgentServer server;
     private static HotSwapper hotSwapper;
     private static RuntimeClassDumper runtimeDumper;
+    private static LoadedClassIndex classIndex;
 
     public static void premain(String agentArgs, Instrumentation inst) {
         System.out.println("[DumperAgent] Premain loaded with args: " + agentArgs);
@@ -38,6 +45,8 @@ public class DumperAgent {
 
     private static void initialize(String agentArgs, Instrumentation inst) {
         instrumentation = inst;
+        dispatcher = TransformDispatcher.install(inst);
+        classIndex = LoadedClassIndex.install(inst);
         hotSwapper = new HotSwapper(inst);
         runtimeDumper = new RuntimeClassDumper(inst);
         
@@ -78,9 +87,30 @@ public class DumperAgent {
             case "dump-runtime":
                 dumpRuntimeClass(args.get("class"), args.get("output"));
                 break;
+            case "dump-all":
+                dumpAllClasses(args.get("filter"), args.get("output"), args.get("batch"));
+                break;
             case "trace":
                 enableTracing(args.get("class"), args.get("method"));
                 break;
+            case "alloc":
+                enableAllocationProfiling(args.get("class"), args.get("method"));
+                break;
+            case "contention":
+                enableContentionProfiling(args.get("class"), args.get("method"));
+                break;
+            case "param-capture":
+                enableParameterCapture(args.get("class"), args.get("method"));
+                break;
+            case "exceptions":
+                enableExceptionProfiling(args.get("class"), args.get("method"));
+                break;
+            case "instrument":
+                instrument(args.get("mode"), args.get("selector"));
+                break;
+            case "trace-export":
+                exportCallTree(args.get("output"));
+                break;
             case "add-timing":
                 addTiming(args.get("class"), args.get("method"));
                 break;
@@ -106,6 +136,25 @@ public class DumperAgent {
         }
     }
 
+    private static void dumpAllClasses(String filter, String outputDir, String batch) {
+        if (filter == null) {
+            System.out.println("[DumperAgent] Filter required");
+            return;
+        }
+        try {
+            String dir = outputDir != null ? outputDir : RuntimeClassDumper.generateOutputDir();
+            int batchSize = batch != null ? Integer.parseInt(batch) : RuntimeClassDumper.DEFAULT_BATCH_SIZE;
+            int count = runtimeDumper.dumpAllClassesMatching(filter, dir, batchSize);
+            System.out.println("[DumperAgent] " + count + " classes dumped to: "
+                + dir + "/" + RuntimeClassDumper.DUMP_JAR_NAME);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[DumperAgent] Usage: cmd=dump-all,filter=<pattern>[,batch=<n>], "
+                + "batch must be a positive integer (" + e.getMessage() + ")");
+        } catch (Exception e) {
+            System.err.println("[DumperAgent] Dump failed: " + e.getMessage());
+        }
+    }
+
     private static void addTiming(String className, String methodName) {
         if (className == null || methodName == null) {
             System.out.println("[DumperAgent] Class and method name required");
@@ -201,81 +250,163 @@ public class DumperAgent {
         
         System.out.println("[DumperAgent] Dumping class: " + className);
         
-        ClassDumpTransformer transformer = new ClassDumpTransformer(className);
-        instrumentation.addTransformer(transformer, true);
+        ClassDumpObserver observer = new ClassDumpObserver(className);
+        dispatcher.addObserver(observer);
         
         try {
-            for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
-                if (clazz.getName().equals(className)) {
-                    instrumentation.retransformClasses(clazz);
-                    break;
-                }
+            Class<?> clazz = classIndex.find(className);
+            if (clazz != null) {
+                instrumentation.retransformClasses(clazz);
             }
         } catch (UnmodifiableClassException e) {
             System.out.println("[DumperAgent] Cannot retransform class: " + e.getMessage());
         } finally {
-            instrumentation.removeTransformer(transformer);
+            dispatcher.removeObserver(observer);
         }
     }
 
-    public static void enableTracing(String className, String methodName) {
+    public static synchronized void enableTracing(String className, String methodName) {
+        enableProbe(className, methodName, ClassTransformer.TransformMode.CALL_TREE, "tracing");
+    }
+
+    public static synchronized void enableAllocationProfiling(String className, String methodName) {
+        enableProbe(className, methodName, ClassTransformer.TransformMode.ALLOCATION, "allocation profiling");
+    }
+
+    public static synchronized void enableContentionProfiling(String className, String methodName) {
+        enableProbe(className, methodName, ClassTransformer.TransformMode.CONTENTION, "contention profiling");
+    }
+
+    public static synchronized void enableParameterCapture(String className, String methodName) {
+        enableProbe(className, methodName, ClassTransformer.TransformMode.PARAMETER_LOG, "parameter capture");
+    }
+
+    public static synchronized void enableExceptionProfiling(String className, String methodName) {
+        enableProbe(className, methodName, ClassTransformer.TransformMode.EXCEPTION_LOG, "exception profiling");
+    }
+
+    private static void enableProbe(String className, String methodName,
+                                    ClassTransformer.TransformMode mode, String description) {
         if (className == null) {
-            System.out.println("[DumperAgent] Class name required for tracing");
+            System.out.println("[DumperAgent] Class name required for " + description);
             return;
         }
         
-        System.out.println("[DumperAgent] Enabling tracing for: " + className + 
+        System.out.println("[DumperAgent] Enabling " + description + " for: " + className + 
             (methodName != null ? "." + methodName : ".*"));
         
-        MethodTraceTransformer transformer = new MethodTraceTransformer(className, methodName);
-        instrumentation.addTransformer(transformer, true);
-        transformers.add(transformer);
+        MethodTraceTransformer transformer = new MethodTraceTransformer(className, methodName, mode);
+        dispatcher.addRule(transformer);
         
         try {
-            for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
-                if (clazz.getName().equals(className)) {
-                    instrumentation.retransformClasses(clazz);
-                    break;
-                }
+            Class<?> clazz = classIndex.find(className);
+            if (clazz != null) {
+                instrumentation.retransformClasses(clazz);
             }
         } catch (UnmodifiableClassException e) {
             System.out.println("[DumperAgent] Cannot retransform class: " + e.getMessage());
         }
     }
 
-    public static void disableAllTracing() {
-        for (ClassFileTransformer transformer : transformers) {
-            instrumentation.removeTransformer(transformer);
+    private static void instrument(String mode, String selector) {
+        if (mode == null || selector == null) {
+            System.out.println("[DumperAgent] Mode and selector required for instrument");
+            return;
         }
-        transformers.clear();
-        System.out.println("[DumperAgent] All tracing disabled");
+        instrument(Selector.parse(selector), parseMode(mode));
     }
 
-    public static void redefineClass(String className, byte[] bytecode) throws Exception {
-        if (instrumentation == null) {
-            throw new IllegalStateException("Agent not initialized");
-        }
+    public static ClassTransformer.TransformMode parseMode(String mode) {
+        return ClassTransformer.TransformMode.valueOf(mode.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * 按选择器注入探针：已加载且命中的类立即重转换，之后加载的类由转换器在加载时处理
+     *
+     * @return 重转换的类数
+     */
+    public static synchronized int instrument(Selector selector, ClassTransformer.TransformMode mode) {
+        ClassTransformer transformer = new ClassTransformer(selector, mode);
+        dispatcher.addRule(transformer);
         
-        Class<?> targetClass = null;
-        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
-            if (clazz.getName().equals(className)) {
-                targetClass = clazz;
-                break;
+        List<Class<?>> matched = new ArrayList<>();
+        for (Class<?> clazz : classIndex.select(transformer::selects)) {
+            if (instrumentation.isModifiableClass(clazz)) {
+                matched.add(clazz);
             }
         }
-        
-        if (targetClass == null) {
-            throw new ClassNotFoundException("Class not found: " + className);
+        System.out.println("[DumperAgent] Instrumenting " + matched.size() + " loaded class(es) in "
+            + mode + " mode for: " + selector);
+        if (!matched.isEmpty()) {
+            try {
+                instrumentation.retransformClasses(matched.toArray(new Class<?>[0]));
+            } catch (UnmodifiableClassException e) {
+                System.out.println("[DumperAgent] Cannot retransform class: " + e.getMessage());
+            }
         }
-        
-        if (!originalClasses.containsKey(className)) {
-            System.out.println("[DumperAgent] Saving original bytecode for: " + className);
+        return matched.size();
+    }
+
+    public static synchronized void disableAllTracing() {
+        List<Class<?>> traced = new ArrayList<>();
+        int retained = 0;
+        for (TransformRule rule : dispatcher.removeAllRules()) {
+            if (!(rule instanceof ClassTransformer)) {
+                continue;
+            }
+            ClassTransformer transformer = (ClassTransformer) rule;
+            if (transformer.hasRewrittenModifiers()) {
+                // 方法修饰符已在加载期改写，重转换无法还原：保留规则，关闭探针后只剩普通加锁
+                ProbeSwitches.set(transformer.getProbeId(), false);
+                dispatcher.addRule(transformer);
+                retained++;
+                continue;
+            }
+            for (String className : transformer.getTransformedClasses()) {
+                traced.addAll(classIndex.findAll(className));
+            }
         }
         
-        java.lang.instrument.ClassDefinition definition = 
-            new java.lang.instrument.ClassDefinition(targetClass, bytecode);
+        // 去掉已注入的探针
+        if (!traced.isEmpty()) {
+            try {
+                instrumentation.retransformClasses(traced.toArray(new Class<?>[0]));
+            } catch (Throwable t) {
+                for (Class<?> clazz : traced) {
+                    try {
+                        instrumentation.retransformClasses(clazz);
+                    } catch (Throwable e) {
+                        System.out.println("[DumperAgent] Cannot retransform " + clazz.getName() + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        if (retained > 0) {
+            System.out.println("[DumperAgent] " + retained + " contention rule(s) kept with probes off: "
+                + "synchronized methods were rewritten at class load");
+        }
+        System.out.println("[DumperAgent] All tracing disabled");
+    }
+
+    public static void exportCallTree(String outputPath) {
+        try {
+            Path path = Paths.get(outputPath != null ? outputPath : "dumps/calltree.collapsed");
+            int stacks = CallTreeRecorder.exportCollapsed(path);
+            System.out.println("[DumperAgent] " + stacks + " call stacks exported to: " + path);
+        } catch (IOException e) {
+            System.err.println("[DumperAgent] Export failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 经由 HotSwapper 重定义，原始字节码保存在它的堆外存储里，可用 restore 还原
+     */
+    public static void redefineClass(String className, byte[] bytecode) throws Exception {
+        if (instrumentation == null) {
+            throw new IllegalStateException("Agent not initialized");
+        }
         
-        instrumentation.redefineClasses(definition);
+        hotSwapper.redefineClass(className, bytecode);
         System.out.println("[DumperAgent] Class redefined successfully: " + className);
     }
 
@@ -288,7 +419,7 @@ public class DumperAgent {
             System.out.println("  - Redefine Classes: " + instrumentation.isRedefineClassesSupported());
             System.out.println("  - Retransform Classes: " + instrumentation.isRetransformClassesSupported());
             System.out.println("  - Native Method Prefix: " + instrumentation.isNativeMethodPrefixSupported());
-            System.out.println("Active Transformers: " + transformers.size());
+            System.out.println("Transform Dispatcher: " + dispatcher.stats());
             System.out.println("Loaded Classes: " + instrumentation.getAllLoadedClasses().length);
         }
         
@@ -315,48 +446,39 @@ public class DumperAgent {
         }
     }
 
-    private static class ClassDumpTransformer implements ClassFileTransformer {
+    private static class ClassDumpObserver implements TransformDispatcher.ClassObserver {
         private final String targetClassName;
         
-        public ClassDumpTransformer(String className) {
+        public ClassDumpObserver(String className) {
             this.targetClassName = className.replace('.', '/');
         }
         
         @Override
-        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
-                              ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        public void observe(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            byte[] classfileBuffer) {
             if (className != null && className.equals(targetClassName)) {
                 try {
-                    String fileName = className.replace('/', '_') + ".class";
-                    java.nio.file.Files.write(
-                        java.nio.file.Paths.get("dumps", fileName),
-                        classfileBuffer);
-                    System.out.println("[DumperAgent] Class dumped to: dumps/" + fileName);
+                    java.nio.file.Path path = java.nio.file.Paths.get("dumps", className + ".class");
+                    java.nio.file.Files.createDirectories(path.getParent());
+                    java.nio.file.Files.write(path, classfileBuffer);
+                    System.out.println("[DumperAgent] Class dumped to: " + path);
                 } catch (Exception e) {
                     System.out.println("[DumperAgent] Failed to dump class: " + e.getMessage());
                 }
             }
-            return null;
         }
     }
 
-    private static class MethodTraceTransformer implements ClassFileTransformer {
-        private final String targetClassName;
-        private final String targetMethodName;
-        
-        public MethodTraceTransformer(String className, String methodName) {
-            this.targetClassName = className.replace('.', '/');
-            this.targetMethodName = methodName;
-        }
+    /**
+     * 为目标类/方法注入调用树探针，进入和退出（包括异常退出）都会记录到 CallTreeRecorder
+     */
+    private static class MethodTraceTransformer extends ClassTransformer {
         
-        @Override
-        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
-                              ProtectionDomain protectionDomain, byte[] classfileBuffer) {
-            if (className != null && className.equals(targetClassName)) {
-                System.out.println("[DumperAgent] Transforming class for tracing: " + className);
-            }
-            return null;
+        public MethodTraceTransformer(String className, String methodName, TransformMode mode) {
+            super(Collections.singleton(className.replace('.', '/')),
+                methodName != null && !methodName.isEmpty()
+                    ? Collections.singleton(methodName) : Collections.emptySet(),
+                mode);
         }
     }
 }
-
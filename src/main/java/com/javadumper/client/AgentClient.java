@@ -132,9 +132,39 @@ public class AgentClient implements AutoCloseable {
         System.out.println("\nAvailable commands:");
         System.out.println("  list-classes [filter]     - List loaded classes");
         System.out.println("  dump-class <class>        - Dump class bytecode to file");
+        System.out.println("  dump-all <pattern> [n]    - Dump matching classes (batch n)");
         System.out.println("  decompile <class>         - Show bytecode text");
         System.out.println("  add-trace <class.method>  - Add trace logging to method");
         System.out.println("  add-timing <class.method> - Add timing to method");
+        System.out.println("  call-trace <class[.m]>    - Build call tree for class/method");
+        System.out.println("  instrument <mode> <sel>   - Instrument by selector (a.b.**, *Svc.get*, re:...)");
+        System.out.println("  call-tree [depth|reset]   - Show per-thread call trees");
+        System.out.println("  call-tree-export <file>   - Export collapsed stacks");
+        System.out.println("  alloc-profile <class[.m]> - Count allocations per bytecode site");
+        System.out.println("  alloc-report [N] [reset]  - Show top allocation sites");
+        System.out.println("  param-capture <class[.m]> - Capture method arguments off-heap");
+        System.out.println("  param-log [max]           - Show recently captured calls");
+        System.out.println("  exception-profile <cls>   - Count thrown/caught exceptions per method");
+        System.out.println("  exception-stats [N] [reset] - Show exception counts and rates");
+        System.out.println("  contention-profile <cls>  - Measure monitor wait per lock and site");
+        System.out.println("  contention-report [N] [reset] - Show most-waited-on locks");
+        System.out.println("  trace-off                 - Remove all instrumentation probes");
+        System.out.println("  probes                    - List injected probes and their state");
+        System.out.println("  probe-on|probe-off <name|all> - Switch probes without retransform");
+        System.out.println("  profile start [ms]        - Start sampling CPU profiler");
+        System.out.println("  profile stop|top [N]      - Stop / show top-N hot methods");
+        System.out.println("  profile collapsed <file>  - Export sampled collapsed stacks");
+        System.out.println("  timing-stats [reset]      - Show method latency percentiles");
+        System.out.println("  trace-events [max]        - Show recent trace events");
+        System.out.println("  trace-file <path>|off     - Write trace events to file");
+        System.out.println("  ref-index [prefix]        - Index calls/field/string references of loaded classes");
+        System.out.println("  callers <cls#method>      - Find callers of a method");
+        System.out.println("  field-users <cls#field>   - Find reads and writes of a field");
+        System.out.println("  strings <text>            - Find string constants containing text");
+        System.out.println("  redefine-batch <paths>    - Redefine class files/dirs/jars atomically");
+        System.out.println("  watch <dir> [debounceMs]  - Hot-swap changed classes from a directory");
+        System.out.println("  watch <dir> ... partial   - Also apply classes singly when a batch fails");
+        System.out.println("  unwatch                   - Stop watching");
         System.out.println("  restore <class>           - Restore modified class");
         System.out.println("  restore-all               - Restore all modified classes");
         System.out.println("  info                      - Show JVM info");
@@ -0,0 +1,306 @@
+package com.javadumper.core;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 堆外的字节码存储：按 (类名, 加载器) 登记，内容 deflate 压缩后按 SHA-256 去重，
+ * 追加写入 1MB 的 direct buffer 分片，堆上只留很小的索引对象。
+ * 引用计数归零的内容释放，分片上已无存活内容时整片丢弃；加载器被回收后对应条目在下次写入时清理。
+ * 所有方法加锁，调用方只在控制路径（redefine/restore）上访问。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class BytecodeStore {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final Map<String, List<Entry>> byClass = new HashMap<>();
+    private final Map<String, Blob> byHash = new HashMap<>();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<>();
+    private Chunk current;
+    private long rawBytes;
+
+    /**
+     * 已登记的类，restoreAll 之类的遍历用
+     */
+    public static final class StoredClass {
+        public final String className;
+        public final ClassLoader loader;
+
+        StoredClass(String className, ClassLoader loader) {
+            this.className = className;
+            this.loader = loader;
+        }
+    }
+
+    /**
+     * 登记字节码，已存在时不覆盖
+     *
+     * @return 是否新登记
+     */
+    public synchronized boolean putIfAbsent(String className, ClassLoader loader, byte[] bytecode) {
+        purgeCollected();
+        List<Entry> entries = byClass.computeIfAbsent(className, k -> new ArrayList<>(1));
+        if (find(entries, loader) != null) {
+            return false;
+        }
+        entries.add(new Entry(className, loader, intern(bytecode), collected));
+        return true;
+    }
+
+    public synchronized byte[] get(String className, ClassLoader loader) {
+        Entry entry = find(byClass.get(className), loader);
+        return entry != null ? read(entry.blob) : null;
+    }
+
+    public synchronized boolean contains(String className, ClassLoader loader) {
+        return find(byClass.get(className), loader) != null;
+    }
+
+    /**
+     * 任意加载器下是否有该类
+     */
+    public synchronized boolean contains(String className) {
+        List<Entry> entries = byClass.get(className);
+        if (entries != null) {
+            for (Entry entry : entries) {
+                if (!entry.isCollected()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public synchronized boolean remove(String className, ClassLoader loader) {
+        List<Entry> entries = byClass.get(className);
+        Entry entry = find(entries, loader);
+        if (entry == null) {
+            return false;
+        }
+        entries.remove(entry);
+        if (entries.isEmpty()) {
+            byClass.remove(className);
+        }
+        release(entry.blob);
+        return true;
+    }
+
+    public synchronized List<StoredClass> list() {
+        List<StoredClass> result = new ArrayList<>();
+        for (Map.Entry<String, List<Entry>> e : byClass.entrySet()) {
+            for (Entry entry : e.getValue()) {
+                if (!entry.isCollected()) {
+                    result.add(new StoredClass(e.getKey(), entry.loader()));
+                }
+            }
+        }
+        return result;
+    }
+
+    public synchronized String stats() {
+        int classes = 0;
+        for (List<Entry> entries : byClass.values()) {
+            classes += entries.size();
+        }
+        long stored = 0;
+        for (Blob blob : byHash.values()) {
+            stored += blob.length;
+        }
+        return String.format("classes=%d, unique=%d, raw=%d, compressed=%d, offHeap=%d (%d chunks)",
+            classes, byHash.size(), rawBytes, stored, (long) chunks.size() * CHUNK_SIZE, chunks.size());
+    }
+
+    private Entry find(List<Entry> entries, ClassLoader loader) {
+        if (entries != null) {
+            for (Entry entry : entries) {
+                if (entry.isLoader(loader)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Blob intern(byte[] bytecode) {
+        String hash = TransformCache.hash(bytecode);
+        Blob blob = byHash.get(hash);
+        if (blob != null) {
+            blob.refs++;
+            return blob;
+        }
+        byte[] compressed = deflate(bytecode);
+        blob = write(compressed);
+        blob.hash = hash;
+        blob.rawLength = bytecode.length;
+        blob.refs = 1;
+        byHash.put(hash, blob);
+        rawBytes += bytecode.length;
+        return blob;
+    }
+
+    private void release(Blob blob) {
+        if (--blob.refs > 0) {
+            return;
+        }
+        byHash.remove(blob.hash);
+        rawBytes -= blob.rawLength;
+        Chunk chunk = blob.chunk;
+        chunk.live -= blob.length;
+        if (chunk.live == 0) {
+            if (chunk == current) {
+                // 当前分片清空后从头复用
+                chunk.position = 0;
+            } else {
+                chunks.remove(chunk);
+            }
+        }
+    }
+
+    private Blob write(byte[] data) {
+        Chunk chunk = current;
+        if (chunk == null || chunk.buffer.capacity() - chunk.position < data.length) {
+            chunk = new Chunk(Math.max(CHUNK_SIZE, data.length));
+            chunks.add(chunk);
+            current = chunk;
+        }
+        ByteBuffer view = chunk.buffer.duplicate();
+        view.position(chunk.position);
+        view.put(data);
+        Blob blob = new Blob(chunk, chunk.position, data.length);
+        chunk.position += data.length;
+        chunk.live += data.length;
+        return blob;
+    }
+
+    private byte[] read(Blob blob) {
+        byte[] compressed = new byte[blob.length];
+        ByteBuffer view = blob.chunk.buffer.duplicate();
+        view.position(blob.offset);
+        view.get(compressed);
+        byte[] result = new byte[blob.rawLength];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < result.length && !inflater.finished()) {
+                n += inflater.inflate(result, n, result.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted stored bytecode", e);
+        }
+        return result;
+    }
+
+    private byte[] deflate(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[Math.max(64, data.length / 2)];
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            size += deflater.deflate(buffer, size, buffer.length - size);
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * 只处理引用队列里已回收的加载器，不遍历全部条目
+     */
+    private void purgeCollected() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = collected.poll()) != null) {
+            String className = ((LoaderRef) ref).className;
+            List<Entry> entries = byClass.get(className);
+            if (entries == null) {
+                continue;
+            }
+            entries.removeIf(entry -> {
+                if (entry.isCollected()) {
+                    release(entry.blob);
+                    return true;
+                }
+                return false;
+            });
+            if (entries.isEmpty()) {
+                byClass.remove(className);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final boolean bootstrap;
+        private final LoaderRef loaderRef;
+        final Blob blob;
+
+        Entry(String className, ClassLoader loader, Blob blob, ReferenceQueue<ClassLoader> queue) {
+            this.bootstrap = loader == null;
+            this.loaderRef = loader != null ? new LoaderRef(loader, className, queue) : null;
+            this.blob = blob;
+        }
+
+        boolean isLoader(ClassLoader loader) {
+            return bootstrap ? loader == null : loader != null && loaderRef.get() == loader;
+        }
+
+        boolean isCollected() {
+            return !bootstrap && loaderRef.get() == null;
+        }
+
+        ClassLoader loader() {
+            return bootstrap ? null : loaderRef.get();
+        }
+    }
+
+    private static final class LoaderRef extends WeakReference<ClassLoader> {
+        final String className;
+
+        LoaderRef(ClassLoader loader, String className, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            this.className = className;
+        }
+    }
+
+    private static final class Blob {
+        final Chunk chunk;
+        final int offset;
+        final int length;
+        String hash;
+        int rawLength;
+        int refs;
+
+        Blob(Chunk chunk, int offset, int length) {
+            this.chunk = chunk;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Chunk {
+        final ByteBuffer buffer;
+        int position;
+        int live;
+
+        Chunk(int capacity) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+}
@@ -0,0 +1,708 @@
+package com.javadumper.core;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.util.Textifier;
+import org.objectweb.asm.util.TraceMethodVisitor;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * 结构化的类比较：先对类头、字段和每个方法（含指令流）计算 64 位哈希，
+ * 只有哈希不同的方法才转成文本并用 Myers 算法做行级 diff。
+ * 比较时忽略调试信息（行号、局部变量名）和栈帧，插入一条指令只影响所在方法的一小段输出。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class ClassDiff {
+
+    private static final int PARSE_FLAGS = ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+    // ASM 把 MethodParameters 归为调试信息，计算指纹时不能跳过；行号和局部变量表本来就不参与哈希
+    private static final int SHAPE_FLAGS = ClassReader.SKIP_FRAMES;
+    private static final int CONTEXT_LINES = 2;
+    // 编辑距离超过该值时不再回溯，直接整段替换，避免 O(D^2) 的内存
+    private static final int MAX_EDIT_DISTANCE = 2000;
+
+    private ClassDiff() {
+    }
+
+    public static String compare(byte[] bytecode1, byte[] bytecode2) {
+        ClassReader reader1 = new ClassReader(bytecode1);
+        ClassReader reader2 = new ClassReader(bytecode2);
+        ClassShape shape1 = ClassShape.of(reader1);
+        ClassShape shape2 = ClassShape.of(reader2);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("========== Class Comparison ==========\n");
+        sb.append("Class: ").append(shape1.name.replace('/', '.'));
+        if (!shape1.name.equals(shape2.name)) {
+            sb.append(" -> ").append(shape2.name.replace('/', '.'));
+        }
+        sb.append("\n\n");
+
+        int changes = 0;
+        Set<String> headerKeys = new LinkedHashSet<>(shape1.header.keySet());
+        headerKeys.addAll(shape2.header.keySet());
+        for (String key : headerKeys) {
+            String value1 = shape1.header.getOrDefault(key, "(none)");
+            String value2 = shape2.header.getOrDefault(key, "(none)");
+            if (!value1.equals(value2)) {
+                sb.append("~ ").append(key).append(": ").append(value1).append(" -> ").append(value2).append("\n");
+                changes++;
+            }
+        }
+
+        int unchangedFields = 0;
+        for (String key : union(shape1.fields.keySet(), shape2.fields.keySet())) {
+            Member field1 = shape1.fields.get(key);
+            Member field2 = shape2.fields.get(key);
+            if (field1 == null) {
+                sb.append("+ field ").append(field2.describe()).append("\n");
+            } else if (field2 == null) {
+                sb.append("- field ").append(field1.describe()).append("\n");
+            } else if (field1.hash != field2.hash) {
+                sb.append("~ field ").append(field1.describe()).append(" -> ").append(field2.describe()).append("\n");
+            } else {
+                unchangedFields++;
+                continue;
+            }
+            changes++;
+        }
+
+        List<String> changedMethods = new ArrayList<>();
+        int unchangedMethods = 0;
+        for (String key : union(shape1.methods.keySet(), shape2.methods.keySet())) {
+            Member method1 = shape1.methods.get(key);
+            Member method2 = shape2.methods.get(key);
+            if (method1 == null) {
+                sb.append("+ method ").append(method2.describe()).append("\n");
+            } else if (method2 == null) {
+                sb.append("- method ").append(method1.describe()).append("\n");
+            } else if (method1.hash != method2.hash) {
+                changedMethods.add(key);
+            } else {
+                unchangedMethods++;
+                continue;
+            }
+            changes++;
+        }
+
+        if (!changedMethods.isEmpty()) {
+            // 只为哈希不同的方法生成文本
+            Map<String, List<String>> text1 = textify(reader1, changedMethods);
+            Map<String, List<String>> text2 = textify(reader2, changedMethods);
+            for (String key : changedMethods) {
+                String describe1 = shape1.methods.get(key).describe();
+                String describe2 = shape2.methods.get(key).describe();
+                sb.append("~ method ").append(describe1);
+                if (!describe1.equals(describe2)) {
+                    sb.append(" -> ").append(describe2);
+                }
+                sb.append("\n");
+                appendDiff(sb, text1.get(key), text2.get(key));
+            }
+        }
+
+        sb.append("\n");
+        if (changes == 0) {
+            sb.append("No structural differences (debug info and frames ignored)\n");
+        } else {
+            sb.append(String.format("%d change(s), %d field(s) and %d method(s) unchanged%n",
+                changes, unchangedFields, unchangedMethods));
+        }
+        sb.append("=======================================\n");
+        return sb.toString();
+    }
+
+    private static Set<String> union(Set<String> a, Set<String> b) {
+        Set<String> keys = new TreeSet<>(a);
+        keys.addAll(b);
+        return keys;
+    }
+
+    private static Map<String, List<String>> textify(ClassReader reader, List<String> methodKeys) {
+        Map<String, List<String>> result = new HashMap<>();
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                             String signature, String[] exceptions) {
+                String key = name + descriptor;
+                if (!methodKeys.contains(key)) {
+                    return null;
+                }
+                Textifier printer = new Textifier(Opcodes.ASM9) {
+                    @Override
+                    public void visitMethodEnd() {
+                        StringWriter sw = new StringWriter();
+                        print(new PrintWriter(sw));
+                        List<String> lines = new ArrayList<>();
+                        for (String line : sw.toString().split("\n")) {
+                            if (!line.isBlank()) {
+                                lines.add(line.stripTrailing());
+                            }
+                        }
+                        result.put(key, lines);
+                    }
+                };
+                return new TraceMethodVisitor(printer);
+            }
+        }, PARSE_FLAGS);
+        return result;
+    }
+
+    /**
+     * 输出 unified 风格的差异块，每块前后带 CONTEXT_LINES 行上下文
+     */
+    private static void appendDiff(StringBuilder sb, List<String> lines1, List<String> lines2) {
+        List<Edit> edits = Myers.diff(lines1, lines2);
+        int i = 0;
+        while (i < edits.size()) {
+            if (edits.get(i).op == ' ') {
+                i++;
+                continue;
+            }
+            int start = Math.max(0, i - CONTEXT_LINES);
+            int end = i;
+            // 相邻改动之间的相同行不超过两倍上下文时合并到同一块
+            int lastChange = i;
+            while (end < edits.size()) {
+                if (edits.get(end).op != ' ') {
+                    lastChange = end;
+                } else if (end - lastChange > 2 * CONTEXT_LINES) {
+                    break;
+                }
+                end++;
+            }
+            end = Math.min(edits.size(), lastChange + 1 + CONTEXT_LINES);
+
+            Edit first = edits.get(start);
+            int count1 = 0;
+            int count2 = 0;
+            for (int k = start; k < end; k++) {
+                char op = edits.get(k).op;
+                if (op != '+') count1++;
+                if (op != '-') count2++;
+            }
+            sb.append(String.format("    @@ -%d,%d +%d,%d @@%n", first.line1 + 1, count1, first.line2 + 1, count2));
+            for (int k = start; k < end; k++) {
+                Edit edit = edits.get(k);
+                sb.append("    ").append(edit.op).append(edit.text).append("\n");
+            }
+            i = end;
+        }
+    }
+
+    /**
+     * 类头、字段、方法的指纹
+     */
+    private static final class ClassShape extends ClassVisitor {
+        String name;
+        final Map<String, String> header = new LinkedHashMap<>();
+        final Map<String, Member> fields = new HashMap<>();
+        final Map<String, Member> methods = new HashMap<>();
+
+        ClassShape() {
+            super(Opcodes.ASM9);
+        }
+
+        static ClassShape of(ClassReader reader) {
+            ClassShape shape = new ClassShape();
+            reader.accept(shape, SHAPE_FLAGS);
+            return shape;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                          String[] interfaces) {
+            this.name = name;
+            header.put("version", (version & 0xFFFF) + "." + (version >>> 16));
+            header.put("access", "0x" + Integer.toHexString(access));
+            header.put("signature", String.valueOf(signature));
+            header.put("super", String.valueOf(superName));
+            header.put("interfaces", Arrays.toString(interfaces));
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            return AnnotationText.of(descriptor, visible,
+                text -> header.merge("annotations", text, (a, b) -> a + " " + b));
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature,
+                                       Object value) {
+            Hash hash = new Hash().add(access).add(descriptor).add(signature).add(String.valueOf(value));
+            Member field = new Member(access, name, descriptor, signature, null);
+            field.value = value;
+            fields.put(name, field);
+            return new FieldVisitor(Opcodes.ASM9) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String annotation, boolean visible) {
+                    return AnnotationText.of(annotation, visible, hash::add);
+                }
+
+                @Override
+                public void visitEnd() {
+                    field.hash = hash.value;
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                         String[] exceptions) {
+            Member method = new Member(access, name, descriptor, signature, exceptions);
+            methods.put(name + descriptor, method);
+            Hash hash = new Hash().add(access).add(signature).add(Arrays.toString(exceptions));
+            return new HashingMethodVisitor(hash, method);
+        }
+    }
+
+    private static final class Member {
+        final int access;
+        final String name;
+        final String descriptor;
+        final String signature;
+        final String[] exceptions;
+        final List<String> parameters = new ArrayList<>();
+        Object value;
+        long hash;
+
+        Member(int access, String name, String descriptor, String signature, String[] exceptions) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.signature = signature;
+            this.exceptions = exceptions;
+        }
+
+        /**
+         * 除指令和注解外参与哈希的部分都体现在描述里，只改了这些的方法也能看出差别
+         */
+        String describe() {
+            StringBuilder sb = new StringBuilder(name)
+                .append(descriptor.startsWith("(") ? descriptor : " " + descriptor)
+                .append(String.format(" (access 0x%x)", access));
+            if (signature != null) {
+                sb.append(" signature ").append(signature);
+            }
+            if (exceptions != null && exceptions.length > 0) {
+                sb.append(" throws ").append(Arrays.toString(exceptions));
+            }
+            if (!parameters.isEmpty()) {
+                sb.append(" parameters ").append(parameters);
+            }
+            if (value != null) {
+                sb.append(" = ").append(value);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 把注解（含嵌套注解、数组和枚举值）渲染成文本，结束时交给回调：类注解直接显示，其余的折进哈希
+     */
+    private static final class AnnotationText extends AnnotationVisitor {
+        private final StringBuilder sb;
+        private final String close;
+        private final Consumer<String> done;
+        private boolean first = true;
+
+        AnnotationText(String open, String close, Consumer<String> done) {
+            super(Opcodes.ASM9);
+            this.sb = new StringBuilder(open);
+            this.close = close;
+            this.done = done;
+        }
+
+        static AnnotationText of(String descriptor, boolean visible, Consumer<String> done) {
+            return new AnnotationText("@" + descriptor + (visible ? "" : "[invisible]") + "(", ")", done);
+        }
+
+        private StringBuilder next(String name) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            return name != null ? sb.append(name).append('=') : sb;
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            String text;
+            if (value.getClass().isArray()) {
+                text = Arrays.deepToString(new Object[] { value });
+                text = "{" + text.substring(2, text.length() - 2) + "}";
+            } else if (value instanceof String) {
+                text = "\"" + value + "\"";
+            } else {
+                text = String.valueOf(value);
+            }
+            next(name).append(text);
+        }
+
+        @Override
+        public void visitEnum(String name, String descriptor, String value) {
+            next(name).append(descriptor).append('.').append(value);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+            next(name);
+            return new AnnotationText("@" + descriptor + "(", ")", sb::append);
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            next(name);
+            return new AnnotationText("{", "}", sb::append);
+        }
+
+        @Override
+        public void visitEnd() {
+            done.accept(sb.append(close).toString());
+        }
+    }
+
+    /**
+     * 把指令流折叠成哈希。跳转目标记为所在的指令序号，在 visitEnd 统一折进哈希：
+     * 只供行号、局部变量表使用的标签不影响结果，两个等价方法得到相同的哈希
+     */
+    private static final class HashingMethodVisitor extends MethodVisitor {
+        private final Hash hash;
+        private final Member method;
+        private final Map<Label, Integer> offsets = new IdentityHashMap<>();
+        private final List<Label> references = new ArrayList<>();
+        private int instructions;
+
+        HashingMethodVisitor(Hash hash, Member method) {
+            super(Opcodes.ASM9);
+            this.hash = hash;
+            this.method = method;
+        }
+
+        private void label(Label label) {
+            references.add(label);
+        }
+
+        private Hash insn(int opcode) {
+            instructions++;
+            return hash.add(opcode);
+        }
+
+        @Override
+        public void visitParameter(String name, int access) {
+            hash.add('p').add(name).add(access);
+            method.parameters.add(name);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotationDefault() {
+            hash.add('D');
+            return new AnnotationText("", "", hash::add);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            hash.add('A');
+            return AnnotationText.of(descriptor, visible, hash::add);
+        }
+
+        @Override
+        public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+            hash.add('C').add(parameterCount).add(visible ? 1 : 0);
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+            hash.add('P').add(parameter);
+            return AnnotationText.of(descriptor, visible, hash::add);
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            insn(opcode);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            insn(opcode).add(operand);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            insn(opcode).add(var);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            insn(opcode).add(type);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            insn(opcode).add(owner).add(name).add(descriptor);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            insn(opcode).add(owner).add(name).add(descriptor).add(isInterface ? 1 : 0);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+                                           Object... bootstrapMethodArguments) {
+            insn(Opcodes.INVOKEDYNAMIC).add(name).add(descriptor).add(bootstrapMethodHandle.toString())
+                .add(Arrays.deepToString(bootstrapMethodArguments));
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            insn(opcode);
+            label(label);
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            offsets.put(label, instructions);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            insn(Opcodes.LDC).add(value.getClass().getName()).add(value.toString());
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            insn(Opcodes.IINC).add(var).add(increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... targets) {
+            insn(Opcodes.TABLESWITCH).add(min).add(max);
+            label(dflt);
+            for (Label target : targets) {
+                label(target);
+            }
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] targets) {
+            insn(Opcodes.LOOKUPSWITCH);
+            label(dflt);
+            for (int i = 0; i < keys.length; i++) {
+                hash.add(keys[i]);
+                label(targets[i]);
+            }
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            insn(Opcodes.MULTIANEWARRAY).add(descriptor).add(numDimensions);
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+            hash.add('T');
+            label(start);
+            label(end);
+            label(handler);
+            hash.add(type);
+        }
+
+        @Override
+        public void visitEnd() {
+            for (Label label : references) {
+                hash.add(offsets.getOrDefault(label, -1));
+            }
+            method.hash = hash.value;
+        }
+    }
+
+    /**
+     * FNV-1a 64 位哈希
+     */
+    private static final class Hash {
+        private static final long PRIME = 0x100000001b3L;
+        long value = 0xcbf29ce484222325L;
+
+        Hash add(int v) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                value = (value ^ ((v >>> shift) & 0xFF)) * PRIME;
+            }
+            return this;
+        }
+
+        Hash add(String s) {
+            if (s == null) {
+                return add(-1);
+            }
+            add(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                value = (value ^ (c & 0xFF)) * PRIME;
+                value = (value ^ (c >>> 8)) * PRIME;
+            }
+            return this;
+        }
+    }
+
+    private static final class Edit {
+        final char op;
+        final String text;
+        final int line1;
+        final int line2;
+
+        Edit(char op, String text, int line1, int line2) {
+            this.op = op;
+            this.text = text;
+            this.line1 = line1;
+            this.line2 = line2;
+        }
+    }
+
+    /**
+     * Myers O(ND) 差分，先去掉公共前后缀，行先驻留成整数再比较
+     */
+    private static final class Myers {
+
+        static List<Edit> diff(List<String> a, List<String> b) {
+            Map<String, Integer> ids = new HashMap<>();
+            int[] x = intern(a, ids);
+            int[] y = intern(b, ids);
+
+            int prefix = 0;
+            while (prefix < x.length && prefix < y.length && x[prefix] == y[prefix]) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < x.length - prefix && suffix < y.length - prefix
+                    && x[x.length - 1 - suffix] == y[y.length - 1 - suffix]) {
+                suffix++;
+            }
+
+            List<Edit> edits = new ArrayList<>(Math.max(a.size(), b.size()) + 8);
+            for (int i = 0; i < prefix; i++) {
+                edits.add(new Edit(' ', a.get(i), i, i));
+            }
+            middle(a, b, x, y, prefix, x.length - suffix, prefix, y.length - suffix, edits);
+            for (int i = suffix; i > 0; i--) {
+                int i1 = x.length - i;
+                int i2 = y.length - i;
+                edits.add(new Edit(' ', a.get(i1), i1, i2));
+            }
+            return edits;
+        }
+
+        private static int[] intern(List<String> lines, Map<String, Integer> ids) {
+            int[] result = new int[lines.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = ids.computeIfAbsent(lines.get(i), k -> ids.size());
+            }
+            return result;
+        }
+
+        private static void middle(List<String> a, List<String> b, int[] x, int[] y,
+                                   int x0, int x1, int y0, int y1, List<Edit> out) {
+            int n = x1 - x0;
+            int m = y1 - y0;
+            int max = n + m;
+            if (max == 0) {
+                return;
+            }
+            int limit = Math.min(max, MAX_EDIT_DISTANCE);
+            int offset = limit + 1;
+            int[] v = new int[2 * limit + 3];
+            List<int[]> trace = new ArrayList<>();
+            int found = -1;
+            for (int d = 0; d <= limit && found < 0; d++) {
+                trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+                for (int k = -d; k <= d; k += 2) {
+                    int px;
+                    if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                        px = v[offset + k + 1];
+                    } else {
+                        px = v[offset + k - 1] + 1;
+                    }
+                    int py = px - k;
+                    while (px < n && py < m && x[x0 + px] == y[y0 + py]) {
+                        px++;
+                        py++;
+                    }
+                    v[offset + k] = px;
+                    if (px >= n && py >= m) {
+                        found = d;
+                        break;
+                    }
+                }
+            }
+            if (found < 0) {
+                // 差异过大，整段替换
+                for (int i = x0; i < x1; i++) {
+                    out.add(new Edit('-', a.get(i), i, y0));
+                }
+                for (int j = y0; j < y1; j++) {
+                    out.add(new Edit('+', b.get(j), x1, j));
+                }
+                return;
+            }
+
+            // trace[d] 保存第 d 轮开始前的 v[-d-1 .. d+1]，从终点回溯
+            List<Edit> reversed = new ArrayList<>();
+            int px = n;
+            int py = m;
+            for (int d = found; d > 0; d--) {
+                int[] prev = trace.get(d);
+                int base = d + 1;
+                int k = px - py;
+                int prevK;
+                if (k == -d || (k != d && prev[base + k - 1] < prev[base + k + 1])) {
+                    prevK = k + 1;
+                } else {
+                    prevK = k - 1;
+                }
+                int prevX = prev[base + prevK];
+                int prevY = prevX - prevK;
+                while (px > prevX && py > prevY) {
+                    px--;
+                    py--;
+                    reversed.add(new Edit(' ', a.get(x0 + px), x0 + px, y0 + py));
+                }
+                if (prevK == k + 1) {
+                    py--;
+                    reversed.add(new Edit('+', b.get(y0 + py), x0 + px, y0 + py));
+                } else {
+                    px--;
+                    reversed.add(new Edit('-', a.get(x0 + px), x0 + px, y0 + py));
+                }
+            }
+            while (px > 0 && py > 0) {
+                px--;
+                py--;
+                reversed.add(new Edit(' ', a.get(x0 + px), x0 + px, y0 + py));
+            }
+            for (int i = reversed.size() - 1; i >= 0; i--) {
+                out.add(reversed.get(i));
+            }
+        }
+    }
+}
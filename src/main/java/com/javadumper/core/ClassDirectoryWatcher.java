@@ -0,0 +1,294 @@
+package com.javadumper.core;
+
+import org.objectweb.asm.ClassReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 监视编译输出目录，把变化的类合并成一批热替换：
+ * 一段时间内没有新的文件事件才处理（去抖，一次编译的所有写入归为一批），
+ * 内容哈希与上次一致的类跳过，其余通过 HotSwapper.redefineBatch 一次 redefine 完成。
+ * 启动时记录目录中已有类的哈希作为基线，只推送启动之后的变化；尚未加载的类只更新基线。
+ * 整批失败时整批都不生效（redefineBatch 已回滚），批内每个类记住其哈希，内容再次变化之前不再推送，
+ * 避免新旧代码混杂（例如 B 调用了 A 被拒绝的新方法）。显式开启 partialApply 时才逐个重试、应用成功的类。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public class ClassDirectoryWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassDirectoryWatcher.class);
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 300;
+    // 持续有写入时最多推迟这么多个去抖周期
+    private static final int MAX_DEFER_ROUNDS = 10;
+
+    private final HotSwapper hotSwapper;
+    private final Path root;
+    private final long debounceMillis;
+    private final boolean partialApply;
+    private final Map<Path, byte[]> appliedHashes = new HashMap<>();
+    private final Map<Path, byte[]> failedHashes = new HashMap<>();
+    private final Set<Path> pending = new LinkedHashSet<>();
+
+    private WatchService watchService;
+    private volatile Thread thread;
+    private long batches;
+    private long redefined;
+    private long unchanged;
+    private long notLoaded;
+    private long failures;
+    private String lastError;
+
+    public ClassDirectoryWatcher(HotSwapper hotSwapper, Path root, long debounceMillis) {
+        this(hotSwapper, root, debounceMillis, false);
+    }
+
+    /**
+     * @param partialApply 整批失败后是否逐个重定义并保留成功的类；默认关闭，保持整批原子
+     */
+    public ClassDirectoryWatcher(HotSwapper hotSwapper, Path root, long debounceMillis, boolean partialApply) {
+        this.hotSwapper = hotSwapper;
+        this.root = root.toAbsolutePath().normalize();
+        this.debounceMillis = Math.max(10, debounceMillis);
+        this.partialApply = partialApply;
+    }
+
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        watchService = FileSystems.getDefault().newWatchService();
+        registerTree(root, true);
+        Thread t = new Thread(this::loop, "JavaDumper-ClassWatcher");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+        logger.info("Watching {} ({} class files, debounce {}ms)", root, appliedHashes.size(), debounceMillis);
+    }
+
+    public void stop() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        thread = null;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close watch service: {}", e.getMessage());
+        }
+        t.interrupt();
+    }
+
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public synchronized String status() {
+        return String.format("Watching %s: %s, debounce=%dms, %s, batches=%d, redefined=%d, unchanged=%d, "
+                + "notLoaded=%d, failures=%d%s",
+            root, isRunning() ? "running" : "stopped", debounceMillis, partialApply ? "partial" : "atomic",
+            batches, redefined, unchanged, notLoaded, failures, lastError != null ? "\nLast error: " + lastError : "");
+    }
+
+    private void loop() {
+        try {
+            while (thread != null) {
+                WatchKey key = watchService.take();
+                int rounds = 0;
+                // 去抖：收集事件直到安静一个周期，持续写入时最多推迟 MAX_DEFER_ROUNDS 个周期
+                while (key != null) {
+                    collect(key);
+                    if (++rounds >= MAX_DEFER_ROUNDS) {
+                        break;
+                    }
+                    key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                }
+                flush();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stop() 关闭了 watch service
+        }
+    }
+
+    private void collect(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 丢失了事件，重新扫描整棵目录，靠哈希过滤未变化的类
+                rescan();
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // 新建的包目录里可能已经写入了文件，注册后一并扫描
+                try {
+                    registerTree(path, false);
+                } catch (IOException e) {
+                    logger.warn("Failed to watch {}: {}", path, e.getMessage());
+                }
+            } else if (path.toString().endsWith(".class")) {
+                synchronized (this) {
+                    pending.add(path);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private void rescan() {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(p -> p.toString().endsWith(".class")).forEach(p -> {
+                synchronized (this) {
+                    pending.add(p);
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to rescan {}: {}", root, e.getMessage());
+        }
+    }
+
+    private synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> patches = new LinkedHashMap<>();
+        Map<String, Path> paths = new HashMap<>();
+        Map<Path, byte[]> hashes = new HashMap<>();
+        for (Path path : pending) {
+            byte[] bytecode;
+            try {
+                // 删除或写了一半的文件下一次事件再处理
+                if (!Files.isRegularFile(path)) {
+                    continue;
+                }
+                bytecode = Files.readAllBytes(path);
+            } catch (IOException e) {
+                continue;
+            }
+            byte[] hash = TransformCache.digest(bytecode);
+            if (Arrays.equals(hash, appliedHashes.get(path))) {
+                unchanged++;
+                continue;
+            }
+            if (Arrays.equals(hash, failedHashes.get(path))) {
+                // 上次被拒绝的内容，等文件再次修改
+                continue;
+            }
+            String className;
+            try {
+                className = new ClassReader(bytecode).getClassName().replace('/', '.');
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (!hotSwapper.isLoaded(className)) {
+                // 未加载的类下次加载时自然读到新文件
+                applied(path, hash);
+                notLoaded++;
+                continue;
+            }
+            patches.put(className, bytecode);
+            paths.put(className, path);
+            hashes.put(path, hash);
+        }
+        pending.clear();
+        if (patches.isEmpty()) {
+            return;
+        }
+
+        batches++;
+        try {
+            hotSwapper.redefineBatch(patches);
+            for (Path path : paths.values()) {
+                applied(path, hashes.get(path));
+            }
+            redefined += patches.size();
+            lastError = null;
+            logger.info("Hot-swapped {} changed classes from {}", patches.size(), root);
+            return;
+        } catch (Exception e) {
+            failures++;
+            logger.error("Hot-swap batch of {} classes failed: {}", patches.size(), e.getMessage());
+            if (!partialApply || patches.size() == 1) {
+                // 整批保持未应用；redefineBatch 的校验错误已按类列出，重定义失败时列出批内所有类
+                failedHashes.putAll(hashes);
+                lastError = "Batch of " + patches.size() + " classes not applied " + patches.keySet()
+                    + ": " + e.getMessage();
+                return;
+            }
+        }
+        // 显式开启 partialApply：逐个重定义，找出被拒绝的类，其余的照常生效
+        StringBuilder rejected = new StringBuilder();
+        for (Map.Entry<String, byte[]> patch : patches.entrySet()) {
+            String className = patch.getKey();
+            Path path = paths.get(className);
+            try {
+                hotSwapper.redefineBatch(Collections.singletonMap(className, patch.getValue()));
+                applied(path, hashes.get(path));
+                redefined++;
+            } catch (Exception e) {
+                failedHashes.put(path, hashes.get(path));
+                if (rejected.length() > 0) {
+                    rejected.append("; ");
+                }
+                rejected.append(className).append(": ").append(e.getMessage());
+                logger.error("Hot-swap of {} failed: {}", className, e.getMessage());
+            }
+        }
+        lastError = rejected.length() > 0 ? rejected.toString() : null;
+    }
+
+    private void applied(Path path, byte[] hash) {
+        appliedHashes.put(path, hash);
+        failedHashes.remove(path);
+    }
+
+    private void registerTree(Path start, boolean baseline) throws IOException {
+        try (Stream<Path> paths = Files.walk(start)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                } else if (path.toString().endsWith(".class")) {
+                    if (baseline) {
+                        synchronized (this) {
+                            appliedHashes.put(path, TransformCache.digest(Files.readAllBytes(path)));
+                        }
+                    } else {
+                        synchronized (this) {
+                            pending.add(path);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipException;
 
 /**
  * @author Absurdity 457676887
@@ -40,12 +41,32 @@ public class ClassDumper {
     public byte[] extractClassFromJar(String jarPath, String className) throws Exception {
         String classPath = className.replace('.', '/') + ".class";
         
+        JarIndex index = openIndex(jarPath);
+        byte[] bytecode = index != null ? index.read(classPath) : readWithJarFile(jarPath, classPath);
+        if (bytecode == null) {
+            throw new ClassNotFoundException("Class not found in JAR: " + className);
+        }
+        return bytecode;
+    }
+
+    /**
+     * JarIndex 无法映射的归档（超过 2GB 等）返回 null，由调用方退回 JarFile
+     */
+    private static JarIndex openIndex(String jarPath) throws IOException {
+        try {
+            return JarIndex.open(Paths.get(jarPath));
+        } catch (ZipException e) {
+            logger.debug("Falling back to JarFile for {}: {}", jarPath, e.getMessage());
+            return null;
+        }
+    }
+
+    private static byte[] readWithJarFile(String jarPath, String entryName) throws IOException {
         try (JarFile jarFile = new JarFile(jarPath)) {
-            JarEntry entry = jarFile.getJarEntry(classPath);
+            JarEntry entry = jarFile.getJarEntry(entryName);
             if (entry == null) {
-                throw new ClassNotFoundException("Class not found in JAR: " + className);
+                return null;
             }
-            
             try (InputStream is = jarFile.getInputStream(entry)) {
                 return is.readAllBytes();
             }
@@ -70,6 +91,16 @@ public class ClassDumper {
         return visitor.getMetadata();
     }
 
+    /**
+     * 只读类头和成员声明，跳过方法体、调试信息和栈帧，批量建索引用
+     */
+    public static ClassMetadata readDeclarations(byte[] bytecode) {
+        ClassReader reader = new ClassReader(bytecode);
+        ClassMetadataVisitor visitor = new ClassMetadataVisitor();
+        reader.accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return visitor.getMetadata();
+    }
+
     public String saveClassBytecode(byte[] bytecode, String outputPath) throws Exception {
         Path path = Paths.get(outputPath);
         Files.createDirectories(path.getParent());
@@ -88,46 +119,23 @@ public class ClassDumper {
     }
 
     public String compareClasses(byte[] bytecode1, byte[] bytecode2) {
-        String decomp1 = decompileClass(bytecode1);
-        String decomp2 = decompileClass(bytecode2);
-        
-        StringBuilder diff = new StringBuilder();
-        diff.append("========== Class Comparison ==========\n\n");
-        
-        String[] lines1 = decomp1.split("\n");
-        String[] lines2 = decomp2.split("\n");
-        
-        int maxLines = Math.max(lines1.length, lines2.length);
-        
-        for (int i = 0; i < maxLines; i++) {
-            String line1 = i < lines1.length ? lines1[i] : "";
-            String line2 = i < lines2.length ? lines2[i] : "";
-            
-            if (!line1.equals(line2)) {
-                diff.append(String.format("Line %d:%n", i + 1));
-                diff.append("  - ").append(line1).append("\n");
-                diff.append("  + ").append(line2).append("\n");
-            }
-        }
-        
-        diff.append("\n=======================================\n");
-        return diff.toString();
+        return ClassDiff.compare(bytecode1, bytecode2);
     }
 
     public List<String> listClassesInJar(String jarPath) throws Exception {
+        JarIndex index = openIndex(jarPath);
+        if (index != null) {
+            return index.classNames();
+        }
         List<String> classes = new ArrayList<>();
-        
         try (JarFile jarFile = new JarFile(jarPath)) {
             jarFile.stream()
                 .filter(entry -> entry.getName().endsWith(".class"))
                 .forEach(entry -> {
-                    String className = entry.getName()
-                        .replace('/', '.')
-                        .replace(".class", "");
-                    classes.add(className);
+                    String name = entry.getName();
+                    classes.add(name.substring(0, name.length() - 6).replace('/', '.'));
                 });
         }
-        
         return classes;
     }
 
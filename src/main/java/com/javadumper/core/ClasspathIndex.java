@@ -0,0 +1,307 @@
+package com.javadumper.core;
+
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * ClasspathIndexer 生成的索引，整体内存映射后直接查询，不解析字节码。
+ * 所有表都是定长的 int 记录：字符串表字典序、类记录按类名、子类型表按父类型排列，查找都是二分。
+ * 类名使用内部名（a/b/C），查询接口同时接受点分形式。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class ClasspathIndex {
+
+    static final int MAGIC = 0x4A444958;
+    static final int VERSION = 1;
+
+    private static final int HEADER_INTS = 8;
+    private static final int CLASS_INTS = 9;
+    private static final int MEMBER_INTS = 3;
+    private static final int SUBTYPE_INTS = 2;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int stringCount;
+    private final int classCount;
+    private final int subtypeCount;
+    private final int rootCount;
+    private final int stringOffsets;
+    private final int stringData;
+    private final int classes;
+    private final int interfaces;
+    private final int members;
+    private final int subtypes;
+    private final int roots;
+
+    private ClasspathIndex(Path path, MappedByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_INTS * 4 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a classpath index: " + path);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported classpath index version " + buffer.getInt(4) + ": " + path);
+        }
+        this.stringCount = buffer.getInt(8);
+        this.classCount = buffer.getInt(12);
+        int interfaceCount = buffer.getInt(16);
+        int memberCount = buffer.getInt(20);
+        this.subtypeCount = buffer.getInt(24);
+        this.rootCount = buffer.getInt(28);
+
+        this.stringOffsets = HEADER_INTS * 4;
+        this.stringData = stringOffsets + (stringCount + 1) * 4;
+        this.classes = stringData + buffer.getInt(stringOffsets + stringCount * 4);
+        this.interfaces = classes + classCount * CLASS_INTS * 4;
+        this.members = interfaces + interfaceCount * 4;
+        this.subtypes = members + memberCount * MEMBER_INTS * 4;
+        this.roots = subtypes + subtypeCount * SUBTYPE_INTS * 4;
+        if (roots + rootCount * 4 != buffer.capacity()) {
+            throw new IOException("Truncated classpath index: " + path);
+        }
+    }
+
+    public static ClasspathIndex load(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            return new ClasspathIndex(indexFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int classCount() {
+        return classCount;
+    }
+
+    /**
+     * 查询类的声明，不存在返回 null
+     */
+    public ClassDumper.ClassMetadata find(String className) {
+        int index = classIndex(className);
+        return index >= 0 ? metadata(index) : null;
+    }
+
+    /**
+     * 类来自哪个 classpath 条目
+     */
+    public String origin(String className) {
+        int index = classIndex(className);
+        return index >= 0 ? string(buffer.getInt(roots + classInt(index, 8) * 4)) : null;
+    }
+
+    /**
+     * 直接继承或实现 typeName 的类
+     */
+    public List<String> directSubtypes(String typeName) {
+        List<String> result = new ArrayList<>();
+        int typeId = stringId(internal(typeName));
+        if (typeId >= 0) {
+            forEachSubtype(typeId, index -> result.add(external(className(index))));
+        }
+        return result;
+    }
+
+    /**
+     * typeName 的全部可实例化实现类（传递闭包，排除接口和抽象类）
+     */
+    public List<String> implementors(String typeName) {
+        return subtypes(typeName, true);
+    }
+
+    /**
+     * typeName 的全部子类型（传递闭包）
+     *
+     * @param concreteOnly 只返回非接口、非抽象的类
+     */
+    public List<String> subtypes(String typeName, boolean concreteOnly) {
+        List<String> result = new ArrayList<>();
+        int typeId = stringId(internal(typeName));
+        if (typeId < 0) {
+            return result;
+        }
+        BitSet visited = new BitSet(classCount);
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.add(typeId);
+        while (!pending.isEmpty()) {
+            forEachSubtype(pending.poll(), index -> {
+                if (visited.get(index)) {
+                    return;
+                }
+                visited.set(index);
+                pending.add(classInt(index, 0));
+                int access = classInt(index, 1);
+                if (!concreteOnly || (access & (Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT)) == 0) {
+                    result.add(external(className(index)));
+                }
+            });
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * 以 prefix 开头的全部类名（类记录有序，只扫描命中的区间）
+     */
+    public List<String> classNames(String prefix) {
+        String internalPrefix = internal(prefix);
+        List<String> result = new ArrayList<>();
+        int low = lowerBound(internalPrefix);
+        for (int i = low; i < classCount; i++) {
+            String name = className(i);
+            if (!name.startsWith(internalPrefix)) {
+                break;
+            }
+            result.add(external(name));
+        }
+        return result;
+    }
+
+    private interface IndexConsumer {
+        void accept(int classIndex);
+    }
+
+    private void forEachSubtype(int typeId, IndexConsumer consumer) {
+        int low = 0;
+        int high = subtypeCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getInt(subtypes + mid * SUBTYPE_INTS * 4) < typeId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < subtypeCount; i++) {
+            int base = subtypes + i * SUBTYPE_INTS * 4;
+            if (buffer.getInt(base) != typeId) {
+                break;
+            }
+            consumer.accept(buffer.getInt(base + 4));
+        }
+    }
+
+    private ClassDumper.ClassMetadata metadata(int index) {
+        ClassDumper.ClassMetadata m = new ClassDumper.ClassMetadata();
+        m.setName(className(index));
+        m.setAccess(classInt(index, 1));
+        int superId = classInt(index, 2);
+        m.setSuperName(superId >= 0 ? string(superId) : null);
+        int interfaceStart = classInt(index, 3);
+        int interfaceCount = classInt(index, 4);
+        for (int i = 0; i < interfaceCount; i++) {
+            m.getInterfaces().add(string(buffer.getInt(interfaces + (interfaceStart + i) * 4)));
+        }
+        int member = classInt(index, 5);
+        int fieldCount = classInt(index, 6);
+        int methodCount = classInt(index, 7);
+        for (int i = 0; i < fieldCount + methodCount; i++, member++) {
+            int base = members + member * MEMBER_INTS * 4;
+            String name = string(buffer.getInt(base));
+            String descriptor = string(buffer.getInt(base + 4));
+            int access = buffer.getInt(base + 8);
+            if (i < fieldCount) {
+                m.addField(new ClassDumper.FieldInfo(name, descriptor, access));
+            } else {
+                m.addMethod(new ClassDumper.MethodInfo(name, descriptor, access));
+            }
+        }
+        return m;
+    }
+
+    private int classInt(int index, int field) {
+        return buffer.getInt(classes + (index * CLASS_INTS + field) * 4);
+    }
+
+    private String className(int index) {
+        return string(classInt(index, 0));
+    }
+
+    private int classIndex(String className) {
+        int nameId = stringId(internal(className));
+        if (nameId < 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = classCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = classInt(mid, 0);
+            if (id < nameId) {
+                low = mid + 1;
+            } else if (id > nameId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 第一个类名不小于 name 的类记录
+     */
+    private int lowerBound(String name) {
+        int low = 0;
+        int high = classCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (className(mid).compareTo(name) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int stringId(String s) {
+        int low = 0;
+        int high = stringCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = string(mid).compareTo(s);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private String string(int id) {
+        int start = buffer.getInt(stringOffsets + id * 4);
+        int end = buffer.getInt(stringOffsets + (id + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringData + start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String internal(String className) {
+        return className.replace('.', '/');
+    }
+
+    private static String external(String internalName) {
+        return internalName.replace('/', '.');
+    }
+}
@@ -0,0 +1,380 @@
+package com.javadumper.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 并行的 classpath 元数据索引：ForkJoin 遍历 classpath 上的每个 jar 和目录，
+ * 用 ClassDumper.readDeclarations（SKIP_CODE|SKIP_DEBUG）读取类头和成员声明，
+ * 写成 ClasspathIndex 可直接内存映射的二进制索引，之后的查询不再解析字节码。
+ * 同名类以 classpath 中靠前的为准，与类加载顺序一致。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public class ClasspathIndexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClasspathIndexer.class);
+
+    // 每个叶子任务处理的类文件数
+    private static final int BATCH_SIZE = 256;
+
+    private final ForkJoinPool pool;
+    private final AtomicInteger failures = new AtomicInteger();
+
+    public ClasspathIndexer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ClasspathIndexer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public static class Result {
+        public final int roots;
+        public final int classes;
+        public final int duplicates;
+        public final int failures;
+        public final long indexBytes;
+        public final long elapsedMillis;
+
+        Result(int roots, int classes, int duplicates, int failures, long indexBytes, long elapsedMillis) {
+            this.roots = roots;
+            this.classes = classes;
+            this.duplicates = duplicates;
+            this.failures = failures;
+            this.indexBytes = indexBytes;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Indexed %d classes from %d classpath entries in %dms (%d duplicates, %d failures, %d bytes)",
+                classes, roots, elapsedMillis, duplicates, failures, indexBytes);
+        }
+    }
+
+    /**
+     * 按 java 的 classpath 语法拆分，dir/* 展开为目录下的全部 jar
+     */
+    public static List<Path> parseClasspath(String classpath) throws IOException {
+        List<Path> roots = new ArrayList<>();
+        for (String element : classpath.split(File.pathSeparator)) {
+            if (element.isEmpty()) {
+                continue;
+            }
+            if (element.endsWith("*")) {
+                Path dir = Paths.get(element.substring(0, element.length() - 1));
+                try (Stream<Path> files = Files.list(dir)) {
+                    files.filter(p -> isJar(p.toString())).sorted().forEach(roots::add);
+                }
+            } else {
+                roots.add(Paths.get(element));
+            }
+        }
+        return roots;
+    }
+
+    public Result index(List<Path> roots, Path indexFile) throws IOException {
+        long start = System.currentTimeMillis();
+        failures.set(0);
+
+        List<Unit> units = collectClassFiles(roots, failures);
+        List<Entry> entries = pool.invoke(new ParseTask(units, 0, units.size()));
+
+        // 同名类保留 classpath 顺序靠前的
+        entries.sort((a, b) -> {
+            int c = a.metadata.getName().compareTo(b.metadata.getName());
+            return c != 0 ? c : Long.compare(a.order, b.order);
+        });
+        List<Entry> unique = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (unique.isEmpty() || !unique.get(unique.size() - 1).metadata.getName().equals(entry.metadata.getName())) {
+                unique.add(entry);
+            }
+        }
+
+        long size = write(unique, roots, indexFile);
+        Result result = new Result(roots.size(), unique.size(), entries.size() - unique.size(), failures.get(),
+            size, System.currentTimeMillis() - start);
+        logger.info("{} -> {}", result, indexFile);
+        return result;
+    }
+
+    /**
+     * 把 classpath 拆成待解析的类文件清单，按 classpath 顺序排列；jar 只读中央目录
+     */
+    static List<Unit> collectClassFiles(List<Path> roots) {
+        return collectClassFiles(roots, null);
+    }
+
+    /**
+     * 读不了的 jar 或目录记一次失败后跳过，不影响其他根
+     *
+     * @param failures 失败计数，可以为 null
+     */
+    static List<Unit> collectClassFiles(List<Path> roots, AtomicInteger failures) {
+        List<Unit> units = new ArrayList<>();
+        for (int i = 0; i < roots.size(); i++) {
+            Path root = roots.get(i);
+            try {
+                collectUnits(root, i, units);
+            } catch (IOException | RuntimeException e) {
+                if (failures != null) {
+                    failures.incrementAndGet();
+                }
+                logger.warn("Failed to read classpath entry {}: {}", root, e.getMessage());
+            }
+        }
+        return units;
+    }
+
+    private static void collectUnits(Path root, int rootIndex, List<Unit> units) throws IOException {
+        if (Files.isDirectory(root)) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(root)) {
+                files = walk.filter(p -> isIndexable(root.relativize(p).toString().replace(File.separatorChar, '/')))
+                    .sorted().collect(Collectors.toList());
+            }
+            for (int i = 0; i < files.size(); i++) {
+                units.add(new Unit(rootIndex, i, files.get(i), null, null));
+            }
+        } else if (Files.isRegularFile(root) && isJar(root.toString())) {
+            JarIndex jar = JarIndex.open(root);
+            List<String> names = jar.entryNames();
+            for (int i = 0; i < names.size(); i++) {
+                if (isIndexable(names.get(i))) {
+                    units.add(new Unit(rootIndex, i, null, jar, names.get(i)));
+                }
+            }
+        } else {
+            logger.warn("Skipping classpath entry {}", root);
+        }
+    }
+
+    private static boolean isJar(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".jar") || lower.endsWith(".zip");
+    }
+
+    private static boolean isIndexable(String entryName) {
+        // 多版本 jar 的 META-INF/versions 下是同名类的替代实现，只索引基础版本
+        return entryName.endsWith(".class") && !entryName.startsWith("META-INF/")
+            && !entryName.endsWith("module-info.class");
+    }
+
+    static final class Unit {
+        final int root;
+        final int position;
+        final Path file;
+        final JarIndex jar;
+        final String entryName;
+
+        Unit(int root, int position, Path file, JarIndex jar, String entryName) {
+            this.root = root;
+            this.position = position;
+            this.file = file;
+            this.jar = jar;
+            this.entryName = entryName;
+        }
+
+        byte[] read() throws IOException {
+            return file != null ? Files.readAllBytes(file) : jar.read(entryName);
+        }
+
+        String describe() {
+            return file != null ? file.toString() : jar.getPath() + "!/" + entryName;
+        }
+    }
+
+    private static final class Entry {
+        final ClassDumper.ClassMetadata metadata;
+        final int root;
+        // classpath 中的全局顺序：根的序号在高位
+        final long order;
+
+        Entry(ClassDumper.ClassMetadata metadata, Unit unit) {
+            this.metadata = metadata;
+            this.root = unit.root;
+            this.order = ((long) unit.root << 32) | unit.position;
+        }
+    }
+
+    private final class ParseTask extends RecursiveTask<List<Entry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Unit> units;
+        private final int from;
+        private final int to;
+
+        ParseTask(List<Unit> units, int from, int to) {
+            this.units = units;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Entry> compute() {
+            if (to - from > BATCH_SIZE) {
+                int mid = (from + to) >>> 1;
+                ParseTask left = new ParseTask(units, from, mid);
+                left.fork();
+                List<Entry> right = new ParseTask(units, mid, to).compute();
+                List<Entry> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+            List<Entry> result = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                Unit unit = units.get(i);
+                try {
+                    result.add(new Entry(ClassDumper.readDeclarations(unit.read()), unit));
+                } catch (IOException | RuntimeException e) {
+                    failures.incrementAndGet();
+                    logger.debug("Failed to index {}: {}", unit.describe(), e.getMessage());
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 写出 ClasspathIndex 格式：字符串表按字典序排列，类记录按类名排列，
+     * 子类型表按父类型排列，查询时全部可以二分查找。先写临时文件再原子替换。
+     */
+    private static long write(List<Entry> entries, List<Path> roots, Path indexFile) throws IOException {
+        TreeSet<String> strings = new TreeSet<>();
+        for (Path root : roots) {
+            strings.add(root.toString());
+        }
+        for (Entry entry : entries) {
+            ClassDumper.ClassMetadata m = entry.metadata;
+            strings.add(m.getName());
+            if (m.getSuperName() != null) {
+                strings.add(m.getSuperName());
+            }
+            strings.addAll(m.getInterfaces());
+            for (ClassDumper.FieldInfo field : m.getFields()) {
+                strings.add(field.name);
+                strings.add(field.descriptor);
+            }
+            for (ClassDumper.MethodInfo method : m.getMethods()) {
+                strings.add(method.name);
+                strings.add(method.descriptor);
+            }
+        }
+        Map<String, Integer> ids = new HashMap<>(strings.size() * 4 / 3 + 1);
+        byte[][] encoded = new byte[strings.size()][];
+        for (String s : strings) {
+            encoded[ids.size()] = s.getBytes(StandardCharsets.UTF_8);
+            ids.put(s, ids.size());
+        }
+
+        int interfaceCount = 0;
+        int memberCount = 0;
+        List<long[]> subtypes = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            ClassDumper.ClassMetadata m = entries.get(i).metadata;
+            interfaceCount += m.getInterfaces().size();
+            memberCount += m.getFields().size() + m.getMethods().size();
+            if (m.getSuperName() != null) {
+                subtypes.add(new long[]{ids.get(m.getSuperName()), i});
+            }
+            for (String itf : m.getInterfaces()) {
+                subtypes.add(new long[]{ids.get(itf), i});
+            }
+        }
+        subtypes.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        Path parent = indexFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(ClasspathIndex.MAGIC);
+            out.writeInt(ClasspathIndex.VERSION);
+            out.writeInt(encoded.length);
+            out.writeInt(entries.size());
+            out.writeInt(interfaceCount);
+            out.writeInt(memberCount);
+            out.writeInt(subtypes.size());
+            out.writeInt(roots.size());
+
+            int offset = 0;
+            for (byte[] s : encoded) {
+                out.writeInt(offset);
+                offset += s.length;
+            }
+            out.writeInt(offset);
+            for (byte[] s : encoded) {
+                out.write(s);
+            }
+
+            int interfaceStart = 0;
+            int memberStart = 0;
+            for (Entry entry : entries) {
+                ClassDumper.ClassMetadata m = entry.metadata;
+                int fields = m.getFields().size();
+                int methods = m.getMethods().size();
+                out.writeInt(ids.get(m.getName()));
+                out.writeInt(m.getAccess());
+                out.writeInt(m.getSuperName() != null ? ids.get(m.getSuperName()) : -1);
+                out.writeInt(interfaceStart);
+                out.writeInt(m.getInterfaces().size());
+                out.writeInt(memberStart);
+                out.writeInt(fields);
+                out.writeInt(methods);
+                out.writeInt(entry.root);
+                interfaceStart += m.getInterfaces().size();
+                memberStart += fields + methods;
+            }
+            for (Entry entry : entries) {
+                for (String itf : entry.metadata.getInterfaces()) {
+                    out.writeInt(ids.get(itf));
+                }
+            }
+            for (Entry entry : entries) {
+                for (ClassDumper.FieldInfo field : entry.metadata.getFields()) {
+                    out.writeInt(ids.get(field.name));
+                    out.writeInt(ids.get(field.descriptor));
+                    out.writeInt(field.access);
+                }
+                for (ClassDumper.MethodInfo method : entry.metadata.getMethods()) {
+                    out.writeInt(ids.get(method.name));
+                    out.writeInt(ids.get(method.descriptor));
+                    out.writeInt(method.access);
+                }
+            }
+            for (long[] subtype : subtypes) {
+                out.writeInt((int) subtype[0]);
+                out.writeInt((int) subtype[1]);
+            }
+            for (Path root : roots) {
+                out.writeInt(ids.get(root.toString()));
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(indexFile);
+    }
+}
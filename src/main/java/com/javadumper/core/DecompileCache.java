@@ -0,0 +1,110 @@
+package com.javadumper.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 反编译文本缓存，分两层：
+ * 类 -> 当前字节码的哈希（弱引用，类卸载后自动释放），命中时连 retransform 都不需要；
+ * 字节码哈希 -> Textifier 文本，按条目数和总字符数双重限制的 LRU，内容寻址，还原后的同一份字节码直接复用。
+ * retransform 看到的字节码只会因 redefine 改变，HotSwapper 每次 redefine 后调用 invalidate 丢掉第一层映射。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class DecompileCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_MAX_CHARS = 8L * 1024 * 1024;
+
+    private static final DecompileCache SHARED = new DecompileCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CHARS);
+
+    private final int maxEntries;
+    private final long maxChars;
+    private final Map<Class<?>, String> keyByClass = new WeakHashMap<>();
+    private final LinkedHashMap<String, String> texts = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalChars;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public DecompileCache(int maxEntries, long maxChars) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * agent 内共享的实例：RuntimeClassDumper 读写，HotSwapper 失效
+     */
+    public static DecompileCache shared() {
+        return SHARED;
+    }
+
+    public static String key(byte[] bytecode) {
+        return TransformCache.key(bytecode, "textify");
+    }
+
+    /**
+     * 按类查询，类在上次反编译之后没有被 redefine 过才会命中
+     */
+    public synchronized String get(Class<?> clazz) {
+        String key = keyByClass.get(clazz);
+        String text = key != null ? texts.get(key) : null;
+        if (text != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return text;
+    }
+
+    /**
+     * 按字节码查询，不计入命中统计
+     */
+    public synchronized String get(String key) {
+        return texts.get(key);
+    }
+
+    public synchronized void put(Class<?> clazz, String key, String text) {
+        keyByClass.put(clazz, key);
+        if (text.length() > maxChars) {
+            return;
+        }
+        String previous = texts.put(key, text);
+        if (previous != null) {
+            totalChars -= previous.length();
+        }
+        totalChars += text.length();
+        Iterator<Map.Entry<String, String>> it = texts.entrySet().iterator();
+        while ((texts.size() > maxEntries || totalChars > maxChars) && it.hasNext()) {
+            totalChars -= it.next().getValue().length();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * 类被 redefine 后调用；按哈希缓存的文本仍然有效，保留
+     */
+    public synchronized void invalidate(Class<?> clazz) {
+        if (keyByClass.remove(clazz) != null) {
+            invalidations++;
+        }
+    }
+
+    public synchronized void clear() {
+        keyByClass.clear();
+        texts.clear();
+        totalChars = 0;
+    }
+
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("entries=%d, chars=%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, invalidations=%d",
+            texts.size(), totalChars, hits, misses, lookups == 0 ? 0.0 : hits * 100.0 / lookups, evictions,
+            invalidations);
+    }
+}
@@ -0,0 +1,155 @@
+package com.javadumper.core;
+
+import java.util.regex.Pattern;
+
+/**
+ * 通配符模式：? 匹配一个字符，* 匹配不含分隔符的任意串，** 匹配任意串（可跨分隔符）。
+ * 编译成 token 数组，匹配时用一个 long 位集并行推进所有状态（Thompson 构造），
+ * 没有回溯，耗时与输入长度成线性；超过 63 个 token 时退化为正则。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class GlobPattern {
+
+    private static final int ONE = -1;
+    private static final int STAR = -2;
+    private static final int DEEP = -3;
+    private static final int MAX_TOKENS = 63;
+
+    private final String source;
+    private final char separator;
+    private final int[] tokens;
+    private final long initial;
+    private final long accept;
+    private final Pattern fallback;
+
+    private GlobPattern(String source, char separator, int[] tokens) {
+        this.source = source;
+        this.separator = separator;
+        this.tokens = tokens;
+        if (tokens.length > MAX_TOKENS) {
+            this.fallback = Pattern.compile(toRegex(tokens, separator));
+            this.initial = 0;
+            this.accept = 0;
+        } else {
+            this.fallback = null;
+            this.initial = closure(1L);
+            this.accept = 1L << tokens.length;
+        }
+    }
+
+    /**
+     * @param separator * 不能跨越的字符，传 0 表示没有分隔符（* 与 ** 等价）
+     */
+    public static GlobPattern compile(String glob, char separator) {
+        int[] buffer = new int[glob.length()];
+        int size = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                boolean deep = i + 1 < glob.length() && glob.charAt(i + 1) == '*';
+                if (deep) {
+                    i++;
+                }
+                int token = deep || separator == 0 ? DEEP : STAR;
+                // 连续的星号合并，** 吸收相邻的 *
+                if (size > 0 && buffer[size - 1] <= STAR) {
+                    buffer[size - 1] = Math.min(buffer[size - 1], token);
+                    continue;
+                }
+                buffer[size++] = token;
+            } else if (c == '?') {
+                buffer[size++] = ONE;
+            } else {
+                buffer[size++] = c;
+            }
+        }
+        int[] tokens = new int[size];
+        System.arraycopy(buffer, 0, tokens, 0, size);
+        return new GlobPattern(glob, separator, tokens);
+    }
+
+    public static boolean hasWildcard(String glob) {
+        return glob.indexOf('*') >= 0 || glob.indexOf('?') >= 0;
+    }
+
+    /**
+     * 第一个通配符之前的字面量前缀
+     */
+    public static String literalPrefix(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                return glob.substring(0, i);
+            }
+        }
+        return glob;
+    }
+
+    public boolean matches(CharSequence input) {
+        return matches(input, 0);
+    }
+
+    /**
+     * 匹配 input 从 offset 开始的后缀
+     */
+    public boolean matches(CharSequence input, int offset) {
+        if (fallback != null) {
+            return fallback.matcher(input).region(offset, input.length()).matches();
+        }
+        long state = initial;
+        for (int i = offset, n = input.length(); i < n; i++) {
+            char c = input.charAt(i);
+            long next = 0;
+            for (long bits = state & ~accept; bits != 0; bits &= bits - 1) {
+                int p = Long.numberOfTrailingZeros(bits);
+                int token = tokens[p];
+                if (token == DEEP || (token == STAR && c != separator)) {
+                    next |= 1L << p;
+                } else if (token == c || (token == ONE && c != separator)) {
+                    next |= 1L << (p + 1);
+                }
+            }
+            if (next == 0) {
+                return false;
+            }
+            state = closure(next);
+        }
+        return (state & accept) != 0;
+    }
+
+    /**
+     * 星号可以匹配空串：处于星号位置的状态同时处于它的下一个位置
+     */
+    private long closure(long state) {
+        for (int p = 0; p < tokens.length; p++) {
+            if ((state & (1L << p)) != 0 && tokens[p] <= STAR) {
+                state |= 1L << (p + 1);
+            }
+        }
+        return state;
+    }
+
+    private static String toRegex(int[] tokens, char separator) {
+        String notSeparator = separator == 0 ? "." : "[^" + Pattern.quote(String.valueOf(separator)) + "]";
+        StringBuilder sb = new StringBuilder();
+        for (int token : tokens) {
+            if (token == DEEP) {
+                sb.append(".*");
+            } else if (token == STAR) {
+                sb.append(notSeparator).append('*');
+            } else if (token == ONE) {
+                sb.append(notSeparator);
+            } else {
+                sb.append(Pattern.quote(String.valueOf((char) token)));
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
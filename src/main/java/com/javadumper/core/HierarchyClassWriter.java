@@ -0,0 +1,38 @@
+package com.javadumper.core;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * 用 TypeHierarchyCache 计算公共父类的 ClassWriter。
+ * 默认实现会用 ASM 自己的加载器 Class.forName 目标类型，既可能找错类，
+ * 也会在转换过程中触发类加载；这里只查缓存和类头，没有副作用。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public class HierarchyClassWriter extends ClassWriter {
+
+    private final TypeHierarchyCache hierarchy;
+    private final ClassLoader loader;
+
+    /**
+     * @param loader 被转换类的定义加载器，类型按它的视角解析
+     */
+    public HierarchyClassWriter(ClassReader reader, int flags, TypeHierarchyCache hierarchy, ClassLoader loader) {
+        super(reader, flags);
+        this.hierarchy = hierarchy;
+        this.loader = loader;
+        hierarchy.register(loader, reader);
+    }
+
+    @Override
+    protected String getCommonSuperClass(String type1, String type2) {
+        return hierarchy.commonSuperClass(loader, type1, type2);
+    }
+
+    @Override
+    protected ClassLoader getClassLoader() {
+        return loader;
+    }
+}
@@ -1,15 +1,28 @@
 package com.javadumper.core;
 
+import com.javadumper.probe.MethodRegistry;
+import com.javadumper.probe.ProbeSwitches;
+import com.javadumper.probe.TimingRecorder;
+import com.javadumper.probe.TraceRecorder;
 import org.objectweb.asm.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.instrument.ClassDefinition;
 import java.lang.instrument.Instrumentation;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * @author Absurdity 457676887
@@ -20,12 +33,22 @@ public class HotSwapper {
     private static final Logger logger = LoggerFactory.getLogger(HotSwapper.class);
     
     private final Instrumentation instrumentation;
-    private final Map<String, byte[]> originalBytecode = new HashMap<>();
+    private final BytecodeStore originalBytecode = new BytecodeStore();
+    /** 已还原类的原始字节码，再次插桩时直接作为输入，不必重新捕获 */
+    private final BytecodeStore restoredBytecode = new BytecodeStore();
+    /** 类当前 = 原始字节码 + 依次应用的插桩步骤；被其他方式重定义过的类没有条目 */
+    private final Map<String, String> appliedSteps = new ConcurrentHashMap<>();
     private final RuntimeClassDumper classDumper;
+    private final LoadedClassIndex classIndex;
+    private final TypeHierarchyCache hierarchy;
+    private final TransformCache transformCache = TransformCache.shared();
+    private final DecompileCache decompileCache = DecompileCache.shared();
 
     public HotSwapper(Instrumentation instrumentation) {
         this.instrumentation = instrumentation;
         this.classDumper = new RuntimeClassDumper(instrumentation);
+        this.classIndex = LoadedClassIndex.install(instrumentation);
+        this.hierarchy = TypeHierarchyCache.install(instrumentation);
     }
 
     public void redefineClass(String className, byte[] newBytecode) throws Exception {
@@ -34,20 +57,34 @@ public class HotSwapper {
             throw new ClassNotFoundException("Class not found: " + className);
         }
         
+        redefineClass(targetClass, newBytecode, null);
+        appliedSteps.remove(className);
+    }
+
+    /**
+     * @param knownOriginal 调用方已持有的当前（未修改）字节码，为 null 时从还原记录或 retransform 获取
+     */
+    private void redefineClass(Class<?> targetClass, byte[] newBytecode, byte[] knownOriginal) throws Exception {
         if (!instrumentation.isRedefineClassesSupported()) {
             throw new UnsupportedOperationException("Class redefinition not supported");
         }
         
-        if (!originalBytecode.containsKey(className)) {
-            byte[] original = classDumper.captureClassBytecode(className);
-            originalBytecode.put(className, original);
+        String className = targetClass.getName();
+        ClassLoader loader = targetClass.getClassLoader();
+        if (!originalBytecode.contains(className, loader)) {
+            byte[] original = knownOriginal != null ? knownOriginal : restoredBytecode.get(className, loader);
+            if (original == null) {
+                original = classDumper.captureClassBytecode(className);
+            }
+            originalBytecode.putIfAbsent(className, loader, original);
+            restoredBytecode.remove(className, loader);
             logger.info("Saved original bytecode for: {}", className);
         }
         
         validateBytecode(newBytecode, className);
         
         ClassDefinition definition = new ClassDefinition(targetClass, newBytecode);
-        instrumentation.redefineClasses(definition);
+        redefine(definition);
         
         logger.info("Class redefined: {}", className);
     }
@@ -58,26 +95,203 @@ public class HotSwapper {
     }
 
     public void restoreOriginal(String className) throws Exception {
-        byte[] original = originalBytecode.get(className);
+        Class<?> targetClass = findClass(className);
+        if (targetClass == null) {
+            throw new ClassNotFoundException("Class not found: " + className);
+        }
+        restoreOriginal(className, targetClass.getClassLoader());
+    }
+
+    public void restoreOriginal(String className, ClassLoader loader) throws Exception {
+        byte[] original = originalBytecode.get(className, loader);
         if (original == null) {
             throw new IllegalStateException("No original bytecode saved for: " + className);
         }
         
-        Class<?> targetClass = findClass(className);
+        Class<?> targetClass = classIndex.find(className, loader);
+        if (targetClass == null) {
+            throw new ClassNotFoundException("Class not found: " + className);
+        }
         ClassDefinition definition = new ClassDefinition(targetClass, original);
-        instrumentation.redefineClasses(definition);
+        redefine(definition);
         
-        originalBytecode.remove(className);
+        markRestored(className, loader, original);
         logger.info("Restored original class: {}", className);
     }
 
+    /**
+     * 一次 redefineClasses 还原全部类；整批失败时逐个还原
+     */
     public void restoreAll() throws Exception {
-        for (String className : originalBytecode.keySet()) {
+        List<BytecodeStore.StoredClass> stored = originalBytecode.list();
+        List<ClassDefinition> definitions = new ArrayList<>();
+        for (BytecodeStore.StoredClass entry : stored) {
+            Class<?> targetClass = classIndex.find(entry.className, entry.loader);
+            byte[] original = originalBytecode.get(entry.className, entry.loader);
+            if (targetClass != null && original != null) {
+                definitions.add(new ClassDefinition(targetClass, original));
+            }
+        }
+        if (definitions.isEmpty()) {
+            return;
+        }
+        
+        try {
+            redefine(definitions.toArray(new ClassDefinition[0]));
+            for (BytecodeStore.StoredClass entry : stored) {
+                byte[] original = originalBytecode.get(entry.className, entry.loader);
+                if (original != null) {
+                    markRestored(entry.className, entry.loader, original);
+                }
+            }
+            logger.info("Restored {} classes in one redefinition", definitions.size());
+            return;
+        } catch (Exception | LinkageError e) {
+            logger.warn("Batch restore failed ({}), restoring classes individually", e.getMessage());
+        }
+        for (BytecodeStore.StoredClass entry : stored) {
             try {
-                restoreOriginal(className);
+                restoreOriginal(entry.className, entry.loader);
             } catch (Exception e) {
-                logger.error("Failed to restore {}: {}", className, e.getMessage());
+                logger.error("Failed to restore {}: {}", entry.className, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 原始字节码从 originalBytecode 移到 restoredBytecode，类回到未插桩状态
+     */
+    private void markRestored(String className, ClassLoader loader, byte[] original) {
+        restoredBytecode.putIfAbsent(className, loader, original);
+        originalBytecode.remove(className, loader);
+        appliedSteps.put(className, "");
+    }
+
+    /**
+     * 批量重定义：先校验全部类，一次 retransform 捕获当前字节码（既是原始字节码，也是回滚快照），
+     * 再用一次 redefineClasses 完成替换，整批只有一个 safepoint。
+     * 任何一步失败都不会留下新旧混杂的代码：校验失败不做任何修改，重定义失败回滚到批量之前的状态。
+     *
+     * @param patches 类名 -> 新字节码
+     */
+    public void redefineBatch(Map<String, byte[]> patches) throws Exception {
+        if (!instrumentation.isRedefineClassesSupported()) {
+            throw new UnsupportedOperationException("Class redefinition not supported");
+        }
+        
+        List<Class<?>> targets = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        for (Map.Entry<String, byte[]> patch : patches.entrySet()) {
+            String className = patch.getKey();
+            Class<?> targetClass = findClass(className);
+            if (targetClass == null) {
+                errors.add(className + ": class not loaded");
+                continue;
+            }
+            if (!instrumentation.isModifiableClass(targetClass)) {
+                errors.add(className + ": class not modifiable");
+                continue;
+            }
+            try {
+                validateBytecode(patch.getValue(), className);
+                targets.add(targetClass);
+            } catch (Exception e) {
+                errors.add(className + ": " + e.getMessage());
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Batch rejected, nothing redefined:\n  " + String.join("\n  ", errors));
+        }
+        
+        Map<Class<?>, byte[]> snapshot = classDumper.captureClasses(targets);
+        if (snapshot.size() != targets.size()) {
+            throw new IllegalStateException("Failed to capture current bytecode of "
+                + (targets.size() - snapshot.size()) + " classes, nothing redefined");
+        }
+        
+        List<Class<?>> newlySaved = new ArrayList<>();
+        ClassDefinition[] definitions = new ClassDefinition[targets.size()];
+        ClassDefinition[] rollback = new ClassDefinition[targets.size()];
+        for (int i = 0; i < targets.size(); i++) {
+            Class<?> targetClass = targets.get(i);
+            byte[] current = snapshot.get(targetClass);
+            if (originalBytecode.putIfAbsent(targetClass.getName(), targetClass.getClassLoader(), current)) {
+                newlySaved.add(targetClass);
+            }
+            definitions[i] = new ClassDefinition(targetClass, patches.get(targetClass.getName()));
+            rollback[i] = new ClassDefinition(targetClass, current);
+        }
+        
+        try {
+            redefine(definitions);
+        } catch (Exception | LinkageError e) {
+            try {
+                redefine(rollback);
+            } catch (Exception | LinkageError rollbackError) {
+                // 保留原始字节码，之后仍可 restore
+                logger.error("Rollback of batch failed: {}", rollbackError.getMessage());
+                throw new IllegalStateException("Batch redefinition failed (" + e.getMessage()
+                    + ") and rollback failed (" + rollbackError.getMessage() + ")", e);
             }
+            for (Class<?> targetClass : newlySaved) {
+                originalBytecode.remove(targetClass.getName(), targetClass.getClassLoader());
+            }
+            throw new IllegalStateException("Batch redefinition failed, " + targets.size()
+                + " classes rolled back: " + e.getMessage(), e);
+        }
+        for (Class<?> targetClass : targets) {
+            appliedSteps.remove(targetClass.getName());
+        }
+        for (Class<?> targetClass : newlySaved) {
+            restoredBytecode.remove(targetClass.getName(), targetClass.getClassLoader());
+        }
+        logger.info("Redefined {} classes in one batch", targets.size());
+    }
+
+    /**
+     * 读取 .class 文件、目录（递归）或 jar 中的类，按字节码里的类名组织成批
+     */
+    public int redefineBatchFromFiles(List<Path> paths) throws Exception {
+        Map<String, byte[]> patches = new LinkedHashMap<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    for (Path file : (Iterable<Path>) files.filter(p -> p.toString().endsWith(".class"))::iterator) {
+                        addPatch(patches, Files.readAllBytes(file));
+                    }
+                }
+            } else if (path.toString().endsWith(".jar")) {
+                readJar(path, patches);
+            } else {
+                addPatch(patches, Files.readAllBytes(path));
+            }
+        }
+        if (patches.isEmpty()) {
+            throw new IllegalArgumentException("No class files found");
+        }
+        redefineBatch(patches);
+        return patches.size();
+    }
+
+    private static void readJar(Path jar, Map<String, byte[]> patches) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().endsWith(".class")
+                        && !entry.getName().endsWith("module-info.class")) {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        addPatch(patches, in.readAllBytes());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addPatch(Map<String, byte[]> patches, byte[] bytecode) {
+        String className = new ClassReader(bytecode).getClassName().replace('/', '.');
+        if (patches.put(className, bytecode) != null) {
+            throw new IllegalArgumentException("Duplicate class in batch: " + className);
         }
     }
 
@@ -85,7 +299,7 @@ public class HotSwapper {
         byte[] original = classDumper.captureClassBytecode(className);
         
         ClassReader reader = new ClassReader(original);
-        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        ClassWriter writer = newClassWriter(reader, className);
         
         ClassVisitor cv = new ClassVisitor(Opcodes.ASM9, writer) {
             @Override
@@ -104,53 +318,117 @@ public class HotSwapper {
     }
 
     public void addMethodTracing(String className, String methodName) throws Exception {
-        byte[] modified = modifyMethod(className, methodName, (mv, access, name, desc) -> 
-            new MethodVisitor(Opcodes.ASM9, mv) {
-                @Override
-                public void visitCode() {
-                    super.visitCode();
-                    mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
-                    mv.visitLdcInsn("[TRACE] Entering: " + className + "." + name);
-                    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/PrintStream", "println",
-                        "(Ljava/lang/String;)V", false);
-                }
-                
-                @Override
-                public void visitInsn(int opcode) {
-                    if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
-                        mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
-                        mv.visitLdcInsn("[TRACE] Exiting: " + className + "." + name);
-                        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/PrintStream", "println",
-                            "(Ljava/lang/String;)V", false);
-                    }
-                    super.visitInsn(opcode);
-                }
-            }
-        );
-        
-        redefineClass(className, modified);
+        int probeId = ProbeSwitches.register("trace:" + className + "." + methodName);
+        instrumentMethod(className, methodName, "trace#" + probeId, (mv, access, name, desc, version) ->
+            new TracingMethodVisitor(mv, access, name, desc, className, version, probeId));
     }
 
     public void addMethodTiming(String className, String methodName) throws Exception {
-        byte[] original = classDumper.captureClassBytecode(className);
+        int probeId = ProbeSwitches.register("timing:" + className + "." + methodName);
+        instrumentMethod(className, methodName, "timing#" + probeId, (mv, access, name, desc, version) ->
+            new TimingMethodVisitor(mv, access, name, desc, className, version, probeId));
+    }
+
+    /**
+     * 缓存键为原始字节码的哈希加依次应用的插桩步骤，开启、还原、再开启时直接复用上次结果。
+     * 已知类当前状态（原始字节码已保存且只被插桩修改过）时不再 retransform 捕获；
+     * 状态未知或中间结果已被淘汰时退回捕获当前字节码
+     *
+     * @param fingerprint 探针类型和编号，与方法名一起构成一个步骤
+     */
+    private void instrumentMethod(String className, String methodName, String fingerprint,
+                                  ProbeVisitorFactory factory) throws Exception {
+        Class<?> targetClass = findClass(className);
+        if (targetClass == null) {
+            throw new ClassNotFoundException("Class not found: " + className);
+        }
+        ClassLoader loader = targetClass.getClassLoader();
+        
+        byte[] saved = originalBytecode.get(className, loader);
+        byte[] base = null;
+        byte[] input = null;
+        String applied = null;
+        if (saved != null) {
+            applied = appliedSteps.get(className);
+            if (applied != null) {
+                base = saved;
+                input = applied.isEmpty() ? saved : transformCache.get(TransformCache.key(saved, applied));
+            }
+        } else {
+            base = restoredBytecode.get(className, loader);
+            applied = "";
+            input = base;
+        }
+        boolean tracked = input != null;
+        if (!tracked) {
+            input = classDumper.captureClassBytecode(className);
+            base = input;
+            applied = "";
+        }
         
+        String step = fingerprint + ":" + methodName;
+        String steps = applied.isEmpty() ? step : applied + ";" + step;
+        String cacheKey = TransformCache.key(base, steps);
+        byte[] instrumented = transformCache.get(cacheKey);
+        if (instrumented == null) {
+            instrumented = instrument(input, className, methodName, factory);
+            transformCache.put(cacheKey, instrumented);
+        }
+        redefineClass(targetClass, instrumented, saved == null ? base : null);
+        if (tracked || saved == null) {
+            appliedSteps.put(className, steps);
+        } else {
+            // 以捕获的当前字节码为基准，与保存的原始字节码对不上
+            appliedSteps.remove(className);
+        }
+    }
+
+    private byte[] instrument(byte[] original, String className, String methodName, ProbeVisitorFactory factory) {
         ClassReader reader = new ClassReader(original);
-        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        ClassWriter writer = newClassWriter(reader, className);
         
         ClassVisitor cv = new ClassVisitor(Opcodes.ASM9, writer) {
+            private int version;
+            
+            @Override
+            public void visit(int version, int access, String name, String signature,
+                              String superName, String[] interfaces) {
+                this.version = version;
+                super.visit(version, access, name, signature, superName, interfaces);
+            }
+            
             @Override
             public MethodVisitor visitMethod(int access, String name, String descriptor,
                                             String signature, String[] exceptions) {
                 MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
-                if (name.equals(methodName)) {
-                    return new TimingMethodVisitor(mv, access, name, descriptor, className);
+                if (name.equals(methodName) && (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0) {
+                    return factory.create(mv, access, name, descriptor, version);
                 }
                 return mv;
             }
         };
         
         reader.accept(cv, ClassReader.EXPAND_FRAMES);
-        redefineClass(className, writer.toByteArray());
+        return writer.toByteArray();
+    }
+
+    private ClassWriter newClassWriter(ClassReader reader, String className) {
+        Class<?> clazz = findClass(className);
+        return new HierarchyClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS,
+            hierarchy, clazz != null ? clazz.getClassLoader() : null);
+    }
+
+    /**
+     * 所有 redefine 都经过这里，无论成败都让这些类的反编译缓存失效
+     */
+    private void redefine(ClassDefinition... definitions) throws Exception {
+        try {
+            instrumentation.redefineClasses(definitions);
+        } finally {
+            for (ClassDefinition definition : definitions) {
+                decompileCache.invalidate(definition.getDefinitionClass());
+            }
+        }
     }
 
     private void validateBytecode(byte[] bytecode, String expectedClassName) throws Exception {
@@ -164,73 +442,144 @@ public class HotSwapper {
     }
 
     private Class<?> findClass(String className) {
-        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
-            if (clazz.getName().equals(className)) {
-                return clazz;
-            }
-        }
-        return null;
+        return classIndex.find(className);
+    }
+
+    public boolean isLoaded(String className) {
+        return findClass(className) != null;
     }
 
     public boolean hasOriginal(String className) {
-        return originalBytecode.containsKey(className);
+        return originalBytecode.contains(className);
+    }
+
+    public String getStoreStats() {
+        return originalBytecode.stats();
     }
 
     public interface MethodModifier {
         MethodVisitor modify(MethodVisitor mv, int access, String name, String descriptor);
     }
 
-    private static class TimingMethodVisitor extends MethodVisitor {
-        private final String className;
-        private final String methodName;
+    private interface ProbeVisitorFactory {
+        MethodVisitor create(MethodVisitor mv, int access, String name, String descriptor, int classVersion);
+    }
+
+    /**
+     * 入口读一次探针开关存入局部变量，出口按同一个值决定是否记录
+     */
+    private abstract static class GuardedProbeVisitor extends TryFinallyAdviceAdapter {
+        protected final int methodId;
+        private final int classVersion;
+        private final int probeId;
+        private int enabledVar;
+        
+        GuardedProbeVisitor(MethodVisitor mv, int access, String name, String desc, String className,
+                            int classVersion, int probeId) {
+            super(Opcodes.ASM9, mv, access, name, desc);
+            this.methodId = MethodRegistry.register(className, name, desc);
+            this.classVersion = classVersion;
+            this.probeId = probeId;
+        }
+        
+        protected abstract void beforeGuard();
+        
+        protected abstract void enterProbe();
+        
+        protected abstract void exitProbe(boolean exceptional);
+        
+        @Override
+        protected void onEnter() {
+            beforeGuard();
+            Label skip = new Label();
+            enabledVar = newLocal(Type.BOOLEAN_TYPE);
+            ProbeGuard.push(mv, classVersion, probeId);
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ISTORE, enabledVar);
+            mv.visitJumpInsn(IFEQ, skip);
+            enterProbe();
+            mv.visitLabel(skip);
+        }
+        
+        @Override
+        protected void onNormalExit(int opcode) {
+            guardedExit(false);
+        }
+        
+        @Override
+        protected void onExceptionalExit() {
+            guardedExit(true);
+        }
+        
+        private void guardedExit(boolean exceptional) {
+            Label skip = new Label();
+            mv.visitVarInsn(ILOAD, enabledVar);
+            mv.visitJumpInsn(IFEQ, skip);
+            exitProbe(exceptional);
+            mv.visitLabel(skip);
+        }
+    }
+
+    private static class TracingMethodVisitor extends GuardedProbeVisitor {
+        private static final String TRACE_RECORDER = Type.getInternalName(TraceRecorder.class);
+        
+        TracingMethodVisitor(MethodVisitor mv, int access, String name, String desc, String className,
+                             int classVersion, int probeId) {
+            super(mv, access, name, desc, className, classVersion, probeId);
+        }
+        
+        @Override
+        protected void beforeGuard() {
+        }
+        
+        @Override
+        protected void enterProbe() {
+            push(methodId);
+            mv.visitMethodInsn(INVOKESTATIC, TRACE_RECORDER, "enter", "(I)V", false);
+        }
+        
+        @Override
+        protected void exitProbe(boolean exceptional) {
+            push(methodId);
+            mv.visitMethodInsn(INVOKESTATIC, TRACE_RECORDER, exceptional ? "exitExceptionally" : "exit", "(I)V", false);
+        }
+    }
+
+    /**
+     * 计时局部变量由 newLocal 分配，不覆盖方法自身的参数和局部变量；
+     * 正常返回和异常退出分别记录
+     */
+    private static class TimingMethodVisitor extends GuardedProbeVisitor {
+        private static final String TIMING_RECORDER = Type.getInternalName(TimingRecorder.class);
+        
         private int startTimeVar;
         
-        public TimingMethodVisitor(MethodVisitor mv, int access, String name, String desc, String className) {
-            super(Opcodes.ASM9, mv);
-            this.className = className;
-            this.methodName = name;
+        public TimingMethodVisitor(MethodVisitor mv, int access, String name, String desc, String className,
+                                   int classVersion, int probeId) {
+            super(mv, access, name, desc, className, classVersion, probeId);
         }
         
         @Override
-        public void visitCode() {
-            super.visitCode();
-            
-            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
-            startTimeVar = 1;
-            mv.visitVarInsn(Opcodes.LSTORE, startTimeVar);
+        protected void beforeGuard() {
+            // 开关关闭时也要赋初值，否则出口处的局部变量无法通过校验
+            startTimeVar = newLocal(Type.LONG_TYPE);
+            mv.visitInsn(LCONST_0);
+            mv.visitVarInsn(LSTORE, startTimeVar);
         }
         
         @Override
-        public void visitInsn(int opcode) {
-            if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
-                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
-                mv.visitVarInsn(Opcodes.LLOAD, startTimeVar);
-                mv.visitInsn(Opcodes.LSUB);
-                mv.visitVarInsn(Opcodes.LSTORE, startTimeVar + 2);
-                
-                mv.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
-                mv.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
-                mv.visitInsn(Opcodes.DUP);
-                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
-                mv.visitLdcInsn("[TIMING] " + className + "." + methodName + " took ");
-                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
-                    "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-                mv.visitVarInsn(Opcodes.LLOAD, startTimeVar + 2);
-                mv.visitInsn(Opcodes.L2D);
-                mv.visitLdcInsn(1000000.0);
-                mv.visitInsn(Opcodes.DDIV);
-                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
-                    "(D)Ljava/lang/StringBuilder;", false);
-                mv.visitLdcInsn(" ms");
-                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
-                    "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
-                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString",
-                    "()Ljava/lang/String;", false);
-                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/io/PrintStream", "println",
-                    "(Ljava/lang/String;)V", false);
-            }
-            super.visitInsn(opcode);
+        protected void enterProbe() {
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+            mv.visitVarInsn(LSTORE, startTimeVar);
+        }
+        
+        @Override
+        protected void exitProbe(boolean exceptional) {
+            push(methodId);
+            mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+            mv.visitVarInsn(LLOAD, startTimeVar);
+            mv.visitInsn(LSUB);
+            mv.visitMethodInsn(INVOKESTATIC, TIMING_RECORDER, exceptional ? "recordThrow" : "record", "(IJ)V", false);
         }
     }
 }
-
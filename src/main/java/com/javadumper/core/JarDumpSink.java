@@ -0,0 +1,322 @@
+package com.javadumper.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 把捕获的字节码流式写入单个 JAR：压缩在线程池中并行完成，
+ * 压缩结果按完成顺序顺序追加到文件，最后写中央目录。
+ * 条目路径保留包结构，可直接放到 classpath 上；相同字节码只写一次。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public class JarDumpSink implements Closeable {
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+    private static final int ENTRY_LIMIT = 0xFFFF;
+    private static final String CONFLICT_PREFIX = "META-INF/dumper/conflicts/";
+
+    private final Path jarPath;
+    private final OutputStream out;
+    private final ExecutorService compressors;
+    private final Semaphore inFlight;
+    private final int dosTime;
+    private final int dosDate;
+
+    private final Map<String, String> digests = new ConcurrentHashMap<>();
+    private final Set<String> names = ConcurrentHashMap.newKeySet();
+    private final List<CentralEntry> central = new ArrayList<>();
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicInteger conflicts = new AtomicInteger();
+    private volatile IOException failure;
+    private long position;
+    private boolean closed;
+
+    public JarDumpSink(Path jarPath) throws IOException {
+        this(jarPath, Runtime.getRuntime().availableProcessors(), 256);
+    }
+
+    public JarDumpSink(Path jarPath, int threads, int maxPending) throws IOException {
+        this.jarPath = jarPath;
+        if (jarPath.getParent() != null) {
+            Files.createDirectories(jarPath.getParent());
+        }
+        this.out = new BufferedOutputStream(Files.newOutputStream(jarPath), 1 << 16);
+        this.inFlight = new Semaphore(Math.max(1, maxPending));
+        this.compressors = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "JarDump-Compressor");
+            t.setDaemon(true);
+            return t;
+        });
+
+        LocalDateTime now = LocalDateTime.now();
+        this.dosTime = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+        this.dosDate = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+
+        byte[] manifest = "Manifest-Version: 1.0\r\nCreated-By: java-dumper\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+        writeEntry("META-INF/MANIFEST.MF", manifest, deflate(manifest));
+    }
+
+    /**
+     * 提交一个类；在途条目达到上限时阻塞，形成有界队列
+     */
+    public void add(String className, byte[] bytecode) throws InterruptedException {
+        if (failure != null) {
+            return;
+        }
+        inFlight.acquire();
+        try {
+            compressors.execute(() -> {
+                try {
+                    addNow(className, bytecode);
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void addNow(String className, byte[] bytecode) throws IOException {
+        String digest = digest(bytecode);
+        String entryName = className.replace('.', '/') + ".class";
+
+        if (digests.putIfAbsent(digest, entryName) != null) {
+            duplicates.incrementAndGet();
+            return;
+        }
+        if (!names.add(entryName)) {
+            // 同名不同内容（例如不同 ClassLoader 加载的不同版本），放到冲突目录下
+            entryName = CONFLICT_PREFIX + conflicts.incrementAndGet() + "/" + entryName;
+        }
+
+        writeEntry(entryName, bytecode, deflate(bytecode));
+    }
+
+    private synchronized void writeEntry(String name, byte[] data, byte[] compressed) throws IOException {
+        if (closed) {
+            throw new IOException("Sink already closed: " + jarPath);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        boolean stored = compressed.length >= data.length;
+        byte[] payload = stored ? data : compressed;
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        CentralEntry entry = new CentralEntry(nameBytes, stored ? STORED : DEFLATED,
+            (int) crc.getValue(), payload.length, data.length, position);
+
+        ByteBuffer header = ByteBuffer.allocate(30 + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIG)
+            .putShort((short) 20)
+            .putShort((short) FLAG_UTF8)
+            .putShort((short) entry.method)
+            .putShort((short) dosTime)
+            .putShort((short) dosDate)
+            .putInt(entry.crc)
+            .putInt(entry.compressedSize)
+            .putInt(entry.size)
+            .putShort((short) nameBytes.length)
+            .putShort((short) 0)
+            .put(nameBytes);
+
+        write(header.array());
+        write(payload);
+        central.add(entry);
+    }
+
+    public int getEntryCount() {
+        synchronized (this) {
+            return central.size() - 1;
+        }
+    }
+
+    public int getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public Path getPath() {
+        return jarPath;
+    }
+
+    /**
+     * 等待所有压缩任务完成并写中央目录
+     */
+    @Override
+    public void close() throws IOException {
+        compressors.shutdown();
+        try {
+            if (!compressors.awaitTermination(10, TimeUnit.MINUTES)) {
+                throw new IOException("Timeout waiting for class compression");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finishing " + jarPath, e);
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+                writeCentralDirectory();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralOffset = position;
+
+        for (CentralEntry entry : central) {
+            boolean zip64Offset = entry.offset >= ZIP32_LIMIT;
+            int extraLength = zip64Offset ? 12 : 0;
+
+            ByteBuffer header = ByteBuffer.allocate(46 + entry.name.length + extraLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER_SIG)
+                .putShort((short) (zip64Offset ? 45 : 20))
+                .putShort((short) (zip64Offset ? 45 : 20))
+                .putShort((short) FLAG_UTF8)
+                .putShort((short) entry.method)
+                .putShort((short) dosTime)
+                .putShort((short) dosDate)
+                .putInt(entry.crc)
+                .putInt(entry.compressedSize)
+                .putInt(entry.size)
+                .putShort((short) entry.name.length)
+                .putShort((short) extraLength)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putInt(0)
+                .putInt((int) (zip64Offset ? ZIP32_LIMIT : entry.offset))
+                .put(entry.name);
+            if (zip64Offset) {
+                header.putShort((short) 0x0001).putShort((short) 8).putLong(entry.offset);
+            }
+            write(header.array());
+        }
+
+        long centralSize = position - centralOffset;
+        int count = central.size();
+        boolean zip64 = count >= ENTRY_LIMIT || centralOffset >= ZIP32_LIMIT || centralSize >= ZIP32_LIMIT;
+
+        if (zip64) {
+            long zip64EndOffset = position;
+            ByteBuffer end64 = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+            end64.putInt(ZIP64_END_SIG)
+                .putLong(44)
+                .putShort((short) 45)
+                .putShort((short) 45)
+                .putInt(0)
+                .putInt(0)
+                .putLong(count)
+                .putLong(count)
+                .putLong(centralSize)
+                .putLong(centralOffset);
+            end64.putInt(ZIP64_LOCATOR_SIG)
+                .putInt(0)
+                .putLong(zip64EndOffset)
+                .putInt(1);
+            write(end64.array());
+        }
+
+        ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_SIG)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) (zip64 ? ENTRY_LIMIT : count))
+            .putShort((short) (zip64 ? ENTRY_LIMIT : count))
+            .putInt((int) (zip64 ? ZIP32_LIMIT : centralSize))
+            .putInt((int) (zip64 ? ZIP32_LIMIT : centralOffset))
+            .putShort((short) 0);
+        write(end.array());
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        out.write(bytes);
+        position += bytes.length;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                bos.write(buf, 0, n);
+            }
+            return bos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String digest(byte[] data) {
+        return Base64.getEncoder().encodeToString(TransformCache.digest(data));
+    }
+
+    private static class CentralEntry {
+        final byte[] name;
+        final int method;
+        final int crc;
+        final int compressedSize;
+        final int size;
+        final long offset;
+
+        CentralEntry(byte[] name, int method, int crc, int compressedSize, int size, long offset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+}
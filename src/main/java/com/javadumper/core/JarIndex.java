@@ -0,0 +1,335 @@
+package com.javadumper.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * 内存映射的 JAR 索引：整个文件只读映射一次，中央目录只解析一次，
+ * 得到 条目名 -> (本地头偏移, 压缩方式, 大小) 的紧凑表。
+ * STORED 条目直接返回映射区的切片（零拷贝），DEFLATED 条目从映射区直接解压。
+ * 实例按文件路径在进程内共享，文件大小或修改时间变化时重新建立索引。
+ * 映射建立后即关闭文件通道，不占用文件句柄。支持 ZIP64 的目录结束记录和条目扩展字段
+ * （JarDumpSink 超过 65535 个条目时会写出），不支持超过 2GB 的文件。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class JarIndex {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int CEN_HEADER_SIZE = 46;
+    private static final int LOC_HEADER_SIZE = 30;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final Map<Path, JarIndex> SHARED = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+    private final MappedByteBuffer buffer;
+    private final String[] names;
+    private final int[] localOffsets;
+    private final int[] compressedSizes;
+    private final int[] sizes;
+    private final int[] crcs;
+    private final byte[] methods;
+    private final Map<String, Integer> byName;
+
+    private JarIndex(Path path) throws IOException {
+        this.path = path;
+        this.lastModified = Files.getLastModifiedTime(path).toMillis();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Archive larger than 2GB: " + path);
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        int eocd = findEndOfCentralDirectory();
+        long entries = Short.toUnsignedInt(buffer.getShort(eocd + 10));
+        long cenSize = Integer.toUnsignedLong(buffer.getInt(eocd + 12));
+        long cenOffset = Integer.toUnsignedLong(buffer.getInt(eocd + 16));
+        long cenEnd = eocd;
+        int locator = eocd - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && buffer.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+            // ZIP64：条目数、目录大小和偏移以 ZIP64 目录结束记录为准
+            long end64 = buffer.getLong(locator + 8);
+            if (end64 < 0 || end64 > locator - 56 || buffer.getInt((int) end64) != ZIP64_EOCD_SIGNATURE) {
+                throw new ZipException("Bad ZIP64 end of central directory in " + path);
+            }
+            entries = buffer.getLong((int) end64 + 32);
+            cenSize = buffer.getLong((int) end64 + 40);
+            cenOffset = buffer.getLong((int) end64 + 48);
+            cenEnd = end64;
+        }
+        if (entries < 0 || entries > Integer.MAX_VALUE || cenOffset < 0 || cenSize < 0
+                || cenOffset + cenSize > cenEnd) {
+            throw new ZipException("Corrupted central directory in " + path);
+        }
+        int count = (int) entries;
+
+        this.names = new String[count];
+        this.localOffsets = new int[count];
+        this.compressedSizes = new int[count];
+        this.sizes = new int[count];
+        this.crcs = new int[count];
+        this.methods = new byte[count];
+        this.byName = new HashMap<>(count * 4 / 3 + 1);
+
+        int pos = (int) cenOffset;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(pos) != CEN_SIGNATURE) {
+                throw new ZipException("Bad central directory entry " + i + " in " + path);
+            }
+            int method = Short.toUnsignedInt(buffer.getShort(pos + 10));
+            crcs[i] = buffer.getInt(pos + 16);
+            long compressed = Integer.toUnsignedLong(buffer.getInt(pos + 20));
+            long uncompressed = Integer.toUnsignedLong(buffer.getInt(pos + 24));
+            int nameLength = Short.toUnsignedInt(buffer.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(pos + 32));
+            long localOffset = Integer.toUnsignedLong(buffer.getInt(pos + 42));
+            if (uncompressed == ZIP32_LIMIT || compressed == ZIP32_LIMIT || localOffset == ZIP32_LIMIT) {
+                // ZIP64 扩展字段只按顺序保存取值为 0xFFFFFFFF 的那几项
+                int extra = findZip64Extra(pos + CEN_HEADER_SIZE + nameLength, extraLength);
+                if (extra < 0) {
+                    throw new ZipException("Missing ZIP64 extra field for entry " + i + " in " + path);
+                }
+                if (uncompressed == ZIP32_LIMIT) {
+                    uncompressed = buffer.getLong(extra);
+                    extra += 8;
+                }
+                if (compressed == ZIP32_LIMIT) {
+                    compressed = buffer.getLong(extra);
+                    extra += 8;
+                }
+                if (localOffset == ZIP32_LIMIT) {
+                    localOffset = buffer.getLong(extra);
+                }
+            }
+            if (uncompressed < 0 || uncompressed > Integer.MAX_VALUE || compressed < 0 || localOffset < 0
+                    || localOffset + compressed > size) {
+                throw new ZipException("Bad sizes for entry " + i + " in " + path);
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(pos + CEN_HEADER_SIZE);
+            view.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            names[i] = name;
+            methods[i] = (byte) method;
+            compressedSizes[i] = (int) compressed;
+            sizes[i] = (int) uncompressed;
+            localOffsets[i] = (int) localOffset;
+            // 重复条目以第一个为准，与 JarFile 一致
+            byName.putIfAbsent(name, i);
+            pos += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * 取进程内共享的索引，文件变化后自动重建
+     */
+    public static JarIndex open(Path jar) throws IOException {
+        Path key = jar.toAbsolutePath().normalize();
+        JarIndex index = SHARED.get(key);
+        if (index != null && index.isCurrent()) {
+            return index;
+        }
+        synchronized (SHARED) {
+            index = SHARED.get(key);
+            if (index == null || !index.isCurrent()) {
+                index = new JarIndex(key);
+                SHARED.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * 丢弃共享的索引，映射区随 GC 释放
+     */
+    public static void evict(Path jar) {
+        SHARED.remove(jar.toAbsolutePath().normalize());
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public boolean contains(String entryName) {
+        return byName.containsKey(entryName);
+    }
+
+    /**
+     * 全部条目名，按中央目录顺序
+     */
+    public List<String> entryNames() {
+        return Arrays.asList(names.clone());
+    }
+
+    /**
+     * 全部 .class 条目的类名，按中央目录顺序
+     */
+    public List<String> classNames() {
+        List<String> classes = new ArrayList<>();
+        for (String name : names) {
+            if (name.endsWith(".class")) {
+                classes.add(name.substring(0, name.length() - 6).replace('/', '.'));
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * 读取条目内容，不存在时返回 null
+     */
+    public byte[] read(String entryName) throws IOException {
+        Integer index = byName.get(entryName);
+        if (index == null) {
+            return null;
+        }
+        ByteBuffer data = data(index);
+        byte[] result = new byte[sizes[index]];
+        if (methods[index] == STORED) {
+            data.get(result);
+        } else {
+            inflate(data, result, index);
+        }
+        verify(result, index, entryName);
+        return result;
+    }
+
+    /**
+     * STORED 条目返回映射区的只读切片，不复制；其他压缩方式解压后包装返回
+     */
+    public ByteBuffer buffer(String entryName) throws IOException {
+        Integer index = byName.get(entryName);
+        if (index == null) {
+            return null;
+        }
+        if (methods[index] == STORED) {
+            return data(index).slice().asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(read(entryName));
+    }
+
+    private boolean isCurrent() {
+        try {
+            return Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == lastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private ByteBuffer data(int index) throws ZipException {
+        int loc = localOffsets[index];
+        if (buffer.getInt(loc) != LOC_SIGNATURE) {
+            throw new ZipException("Bad local header for " + names[index] + " in " + path);
+        }
+        // 本地头的扩展字段长度可能与中央目录不同，必须读本地头
+        int nameLength = Short.toUnsignedInt(buffer.getShort(loc + 26));
+        int extraLength = Short.toUnsignedInt(buffer.getShort(loc + 28));
+        int start = loc + LOC_HEADER_SIZE + nameLength + extraLength;
+        ByteBuffer view = buffer.duplicate();
+        view.position(start).limit(start + compressedSizes[index]);
+        return view;
+    }
+
+    private void inflate(ByteBuffer data, byte[] result, int index) throws ZipException {
+        String entryName = names[index];
+        int method = Byte.toUnsignedInt(methods[index]);
+        if (method != DEFLATED) {
+            throw new ZipException("Unsupported compression method " + method + " for " + entryName);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            int n = 0;
+            while (n < result.length && !inflater.finished()) {
+                int read = inflater.inflate(result, n, result.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != result.length) {
+                throw new ZipException("Truncated entry " + entryName + " in " + path);
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupted entry " + entryName + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void verify(byte[] content, int index, String entryName) throws ZipException {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if ((int) crc.getValue() != crcs[index]) {
+            throw new ZipException("CRC mismatch for " + entryName + " in " + path);
+        }
+    }
+
+    /**
+     * 在扩展字段区里找 ZIP64 块，返回其数据的起始位置，找不到返回 -1
+     */
+    private int findZip64Extra(int start, int length) {
+        int pos = start;
+        int end = start + length;
+        while (pos + 4 <= end) {
+            int id = Short.toUnsignedInt(buffer.getShort(pos));
+            int dataSize = Short.toUnsignedInt(buffer.getShort(pos + 2));
+            if (id == ZIP64_EXTRA_ID) {
+                return pos + 4 + dataSize <= end ? pos + 4 : -1;
+            }
+            pos += 4 + dataSize;
+        }
+        return -1;
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        // EOCD 在文件末尾，后面最多跟 65535 字节的注释
+        int min = (int) Math.max(0, size - EOCD_MIN_SIZE - 0xFFFF);
+        for (int pos = (int) size - EOCD_MIN_SIZE; pos >= min; pos--) {
+            if (buffer.getInt(pos) == EOCD_SIGNATURE) {
+                return pos;
+            }
+        }
+        throw new ZipException("Not a zip archive: " + path);
+    }
+}
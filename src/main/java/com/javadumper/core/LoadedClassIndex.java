@@ -0,0 +1,230 @@
+package com.javadumper.core;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 已加载类索引：按类名 + ClassLoader 查找，避免每次调用 getAllLoadedClasses 线性扫描。
+ * 启动时扫描一次做种子，之后作为 TransformDispatcher 的观察者在类加载时增量维护；
+ * 类和加载器都只持有弱引用，不影响类卸载。
+ * 未命中直接返回 null，不再回退到全量扫描；确实需要补录不经过 transformer 的类时显式调用 refresh。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public class LoadedClassIndex implements TransformDispatcher.ClassObserver {
+
+    private static volatile LoadedClassIndex installed;
+
+    private final Instrumentation instrumentation;
+    private final Map<String, Entry[]> entries = new ConcurrentHashMap<>();
+
+    private LoadedClassIndex(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * 每个 Instrumentation 只安装一个索引，重复调用返回同一实例
+     */
+    public static LoadedClassIndex install(Instrumentation instrumentation) {
+        LoadedClassIndex index = installed;
+        if (index != null && index.instrumentation == instrumentation) {
+            return index;
+        }
+        synchronized (LoadedClassIndex.class) {
+            index = installed;
+            if (index == null || index.instrumentation != instrumentation) {
+                index = new LoadedClassIndex(instrumentation);
+                TransformDispatcher.install(instrumentation).addObserver(index);
+                index.seed();
+                installed = index;
+            }
+            return index;
+        }
+    }
+
+    private int seed() {
+        int count = 0;
+        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
+            if (!clazz.isArray()) {
+                record(clazz.getName(), clazz.getClassLoader(), clazz);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 全量扫描一次已加载的类并回填索引，补上观察者看不到的类，返回扫描到的类数
+     */
+    public int refresh() {
+        return seed();
+    }
+
+    @Override
+    public void observe(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                        byte[] classfileBuffer) {
+        // 只关心新加载的类；加载期 Class 对象尚未定义，先记下名字和加载器，查找时再解析
+        if (className != null && classBeingRedefined == null) {
+            record(className.replace('/', '.'), loader, null);
+        }
+    }
+
+    public Class<?> find(String className) {
+        Entry[] candidates = entries.get(className);
+        if (candidates != null) {
+            for (Entry entry : candidates) {
+                Class<?> clazz = entry.resolve(className);
+                if (clazz != null) {
+                    return clazz;
+                }
+            }
+        }
+        return null;
+    }
+
+    public Class<?> find(String className, ClassLoader loader) {
+        Entry[] candidates = entries.get(className);
+        if (candidates != null) {
+            for (Entry entry : candidates) {
+                if (entry.isLoader(loader)) {
+                    Class<?> clazz = entry.resolve(className);
+                    if (clazz != null) {
+                        return clazz;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 只查索引里已有的 Class 引用，不回退到全量扫描也不调用 forName，供转换过程中使用。
+     * 加载期登记、尚无 Class 对象的条目返回 null，避免在 transformer 里重入类加载
+     */
+    public Class<?> peek(String className, ClassLoader loader) {
+        Entry[] candidates = entries.get(className);
+        if (candidates != null) {
+            for (Entry entry : candidates) {
+                if (entry.isLoader(loader)) {
+                    return entry.cached();
+                }
+            }
+        }
+        return null;
+    }
+
+    public List<Class<?>> findAll(String className) {
+        List<Class<?>> result = new ArrayList<>();
+        Entry[] candidates = entries.get(className);
+        if (candidates != null) {
+            for (Entry entry : candidates) {
+                Class<?> clazz = entry.resolve(className);
+                if (clazz != null) {
+                    result.add(clazz);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 遍历索引中名字满足条件的类，不复制 JVM 的全量类数组
+     */
+    public List<Class<?>> select(Predicate<String> nameFilter) {
+        List<Class<?>> result = new ArrayList<>();
+        for (Map.Entry<String, Entry[]> e : entries.entrySet()) {
+            if (nameFilter.test(e.getKey())) {
+                for (Entry entry : e.getValue()) {
+                    Class<?> clazz = entry.resolve(e.getKey());
+                    if (clazz != null) {
+                        result.add(clazz);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void record(String className, ClassLoader loader, Class<?> clazz) {
+        entries.compute(className, (name, current) -> {
+            if (current != null) {
+                List<Entry> live = new ArrayList<>(current.length + 1);
+                Entry existing = null;
+                for (Entry entry : current) {
+                    if (entry.isCollected()) {
+                        continue;
+                    }
+                    if (entry.isLoader(loader)) {
+                        existing = entry;
+                    }
+                    live.add(entry);
+                }
+                if (existing != null) {
+                    if (clazz != null) {
+                        existing.classRef = new WeakReference<>(clazz);
+                    }
+                    return live.toArray(new Entry[0]);
+                }
+                live.add(new Entry(loader, clazz));
+                return live.toArray(new Entry[0]);
+            }
+            return new Entry[] { new Entry(loader, clazz) };
+        });
+    }
+
+    private static final class Entry {
+        private final boolean bootstrap;
+        private final WeakReference<ClassLoader> loaderRef;
+        private volatile WeakReference<Class<?>> classRef;
+
+        Entry(ClassLoader loader, Class<?> clazz) {
+            this.bootstrap = loader == null;
+            this.loaderRef = loader != null ? new WeakReference<>(loader) : null;
+            this.classRef = clazz != null ? new WeakReference<>(clazz) : null;
+        }
+
+        boolean isLoader(ClassLoader loader) {
+            return bootstrap ? loader == null : loader != null && loaderRef.get() == loader;
+        }
+
+        boolean isCollected() {
+            return !bootstrap && loaderRef.get() == null;
+        }
+
+        Class<?> cached() {
+            WeakReference<Class<?>> ref = classRef;
+            return ref != null ? ref.get() : null;
+        }
+
+        Class<?> resolve(String className) {
+            Class<?> clazz = cached();
+            if (clazz != null) {
+                return clazz;
+            }
+            if (isCollected()) {
+                return null;
+            }
+            try {
+                // 加载期登记的条目：类已由该加载器定义，forName 不会触发初始化
+                clazz = Class.forName(className, false, bootstrap ? null : loaderRef.get());
+                if (clazz.getClassLoader() == (bootstrap ? null : loaderRef.get())) {
+                    classRef = new WeakReference<>(clazz);
+                    return clazz;
+                }
+            } catch (ClassNotFoundException | LinkageError e) {
+                // 定义失败或尚未完成定义
+            }
+            return null;
+        }
+    }
+}
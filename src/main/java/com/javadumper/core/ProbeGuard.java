@@ -0,0 +1,46 @@
+package com.javadumper.core;
+
+import com.javadumper.probe.ProbeSwitches;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * 生成探针开关判断的字节码：Java 7 及以上的类文件用 invokedynamic 绑定到
+ * ProbeSwitches 的 MutableCallSite，更低版本回退为静态方法调用
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class ProbeGuard {
+
+    private static final String PROBE_SWITCHES = Type.getInternalName(ProbeSwitches.class);
+    private static final Handle BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC, PROBE_SWITCHES, "bootstrap",
+        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;I)"
+            + "Ljava/lang/invoke/CallSite;", false);
+
+    private ProbeGuard() {
+    }
+
+    /**
+     * 压入一个 int：探针开启为 1，关闭为 0
+     */
+    public static void push(MethodVisitor mv, int classVersion, int probeId) {
+        if ((classVersion & 0xFFFF) >= Opcodes.V1_7) {
+            mv.visitInvokeDynamicInsn("enabled", "()Z", BOOTSTRAP, probeId);
+        } else {
+            mv.visitLdcInsn(probeId);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, PROBE_SWITCHES, "isEnabled", "(I)Z", false);
+        }
+    }
+
+    /**
+     * 探针关闭时跳到 disabled
+     */
+    public static void jumpIfDisabled(MethodVisitor mv, int classVersion, int probeId, Label disabled) {
+        push(mv, classVersion, probeId);
+        mv.visitJumpInsn(Opcodes.IFEQ, disabled);
+    }
+}
@@ -0,0 +1,469 @@
+package com.javadumper.core;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.util.Printer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 引用倒排索引：并行扫描字节码中的方法调用、字段访问和字符串常量，
+ * 建成 被引用目标 -> 引用点（调用方方法、行号、指令）的倒排表，用于加 trace/timing 之前查调用方。
+ * 字节码可以来自 classpath（经 JarIndex 读取）或运行中 JVM 已加载的类（RuntimeClassDumper 批量捕获）。
+ * 目标按字节码中记录的 owner 登记，即调用点的静态类型；不知道 owner 时可以只按方法名查询。
+ * 建好后只读，查询只是哈希查找加结果格式化。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class ReferenceIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReferenceIndex.class);
+
+    private static final int BATCH_SIZE = 128;
+    private static final int FIELD_CONSTANT = -1;
+
+    // 调用方：a.b.C#method(desc)
+    private final List<String> sites = new ArrayList<>();
+    // 描述符驻留表，引用点只存 id
+    private final List<String> descriptors = new ArrayList<>();
+    private final Map<String, Integer> descriptorIds = new HashMap<>();
+    // a/b/C#name -> 引用点
+    private final Map<String, Postings> methodRefs = new HashMap<>();
+    private final Map<String, Postings> fieldRefs = new HashMap<>();
+    private final Map<String, Postings> stringRefs = new HashMap<>();
+    // 成员名 -> 所有 owner 的键，用于不带类名的查询
+    private final Map<String, List<String>> methodsByName = new HashMap<>();
+    private final Map<String, List<String>> fieldsByName = new HashMap<>();
+    private String[] strings = new String[0];
+    private int classCount;
+    private long referenceCount;
+    private long buildMillis;
+
+    private ReferenceIndex() {
+    }
+
+    /**
+     * 扫描 classpath 上的 jar 和目录，同名类只取 classpath 中靠前的
+     */
+    public static ReferenceIndex fromClasspath(List<Path> roots, ForkJoinPool pool) throws IOException {
+        long start = System.currentTimeMillis();
+        List<ClasspathIndexer.Unit> units = ClasspathIndexer.collectClassFiles(roots);
+        List<ClassRefs> scanned = pool.invoke(new ScanTask(units, 0, units.size()));
+        return build(scanned, true, start);
+    }
+
+    /**
+     * 批量捕获已加载类的当前字节码，捕获回调中把扫描任务交给 pool，与下一批 retransform 并行
+     */
+    public static ReferenceIndex fromLoadedClasses(RuntimeClassDumper dumper, Collection<Class<?>> classes,
+                                                   ForkJoinPool pool) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        List<Future<ClassRefs>> futures = Collections.synchronizedList(new ArrayList<>(classes.size()));
+        dumper.captureBatched(classes, RuntimeClassDumper.DEFAULT_BATCH_SIZE,
+            (clazz, bytecode) -> futures.add(pool.submit(() -> scan(bytecode))));
+
+        List<ClassRefs> scanned = new ArrayList<>(futures.size());
+        for (Future<ClassRefs> future : new ArrayList<>(futures)) {
+            try {
+                scanned.add(future.get());
+            } catch (ExecutionException e) {
+                logger.debug("Failed to scan class: {}", e.getCause().toString());
+            }
+        }
+        // 不同加载器下的同名类各自是独立的类，都要保留
+        return build(scanned, false, start);
+    }
+
+    public static class Reference {
+        public final String site;
+        public final int line;
+        public final String instruction;
+        public final String target;
+
+        Reference(String site, int line, String instruction, String target) {
+            this.site = site;
+            this.line = line;
+            this.instruction = instruction;
+            this.target = target;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%s  %s %s", site, line > 0 ? ":" + line : "", instruction, target);
+        }
+    }
+
+    /**
+     * 查询目标：Class#member、Class.member 或只有成员名；方法名后可带描述符，如 run(I)V
+     */
+    public static class Target {
+        public final String owner;
+        public final String name;
+        public final String descriptor;
+
+        Target(String owner, String name, String descriptor) {
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public static Target parse(String target) {
+            String member = target;
+            String descriptor = null;
+            int paren = member.indexOf('(');
+            if (paren >= 0) {
+                descriptor = member.substring(paren);
+                member = member.substring(0, paren);
+            }
+            int split = member.indexOf('#');
+            if (split < 0) {
+                split = member.lastIndexOf('.');
+            }
+            if (split < 0) {
+                return new Target(null, member, descriptor);
+            }
+            return new Target(member.substring(0, split), member.substring(split + 1), descriptor);
+        }
+    }
+
+    public List<Reference> callers(Target target) {
+        return callers(target.owner, target.name, target.descriptor);
+    }
+
+    /**
+     * 调用 owner#name 的位置
+     *
+     * @param owner      类名（点分或内部名），null 或 "*" 表示任意类
+     * @param descriptor 方法描述符，null 表示所有重载
+     */
+    public List<Reference> callers(String owner, String name, String descriptor) {
+        return lookup(methodRefs, methodsByName, owner, name, descriptor, false);
+    }
+
+    /**
+     * 读写 owner#name 字段的位置，static final 常量的初始值不经过字段指令，无法统计
+     */
+    public List<Reference> fieldUsers(String owner, String name) {
+        return lookup(fieldRefs, fieldsByName, owner, name, null, true);
+    }
+
+    /**
+     * 包含 text 的字符串常量及其引用位置
+     */
+    public List<Reference> strings(String text) {
+        List<Reference> result = new ArrayList<>();
+        for (String constant : strings) {
+            if (constant.contains(text)) {
+                Postings postings = stringRefs.get(constant);
+                for (int i = 0; i < postings.size; i++) {
+                    int info = postings.infos[i];
+                    String source = info == FIELD_CONSTANT ? "constant" : Printer.OPCODES[info].toLowerCase();
+                    result.add(new Reference(sites.get(postings.sites[i]), postings.lines[i], source, quote(constant)));
+                }
+            }
+        }
+        return result;
+    }
+
+    public String stats() {
+        return String.format("classes=%d, sites=%d, methods=%d, fields=%d, strings=%d, references=%d, built in %dms",
+            classCount, sites.size(), methodRefs.size(), fieldRefs.size(), strings.length, referenceCount, buildMillis);
+    }
+
+    private List<Reference> lookup(Map<String, Postings> refs, Map<String, List<String>> byName, String owner,
+                                   String name, String descriptor, boolean field) {
+        List<String> keys;
+        if (owner == null || owner.isEmpty() || "*".equals(owner)) {
+            keys = byName.getOrDefault(name, Collections.emptyList());
+        } else {
+            keys = Collections.singletonList(owner.replace('.', '/') + "#" + name);
+        }
+        List<Reference> result = new ArrayList<>();
+        for (String key : keys) {
+            Postings postings = refs.get(key);
+            if (postings == null) {
+                continue;
+            }
+            String target = key.replace('/', '.');
+            for (int i = 0; i < postings.size; i++) {
+                String desc = descriptors.get(postings.descs[i]);
+                if (descriptor != null && !descriptor.equals(desc)) {
+                    continue;
+                }
+                String opcode = Printer.OPCODES[postings.infos[i]].toLowerCase();
+                result.add(new Reference(sites.get(postings.sites[i]), postings.lines[i], opcode,
+                    field ? target + " : " + desc : target + desc));
+            }
+        }
+        return result;
+    }
+
+    private static String quote(String s) {
+        String escaped = s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+        return "\"" + (escaped.length() > 120 ? escaped.substring(0, 117) + "..." : escaped) + "\"";
+    }
+
+    /**
+     * 单线程合并各类的扫描结果
+     *
+     * @param dedupe 按扫描顺序去掉同名类
+     */
+    private static ReferenceIndex build(List<ClassRefs> scanned, boolean dedupe, long start) {
+        ReferenceIndex index = new ReferenceIndex();
+        Set<String> seen = new HashSet<>();
+        Map<String, Postings> stringRefs = index.stringRefs;
+        for (ClassRefs refs : scanned) {
+            if (refs == null || (dedupe && !seen.add(refs.className))) {
+                continue;
+            }
+            index.classCount++;
+            int siteBase = index.sites.size();
+            for (String site : refs.sites) {
+                index.sites.add(site);
+            }
+            for (RawRef ref : refs.refs) {
+                int site = siteBase + ref.site;
+                switch (ref.kind) {
+                    case RawRef.METHOD:
+                        index.add(index.methodRefs, index.methodsByName, ref, site);
+                        break;
+                    case RawRef.FIELD:
+                        index.add(index.fieldRefs, index.fieldsByName, ref, site);
+                        break;
+                    default:
+                        stringRefs.computeIfAbsent(ref.name, k -> new Postings()).add(site, ref.line, ref.opcode, 0);
+                        break;
+                }
+                index.referenceCount++;
+            }
+        }
+        index.strings = stringRefs.keySet().toArray(new String[0]);
+        Arrays.sort(index.strings);
+        index.buildMillis = System.currentTimeMillis() - start;
+        logger.info("Reference index built: {}", index.stats());
+        return index;
+    }
+
+    private void add(Map<String, Postings> refs, Map<String, List<String>> byName, RawRef ref, int site) {
+        String key = ref.owner + "#" + ref.name;
+        Postings postings = refs.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            refs.put(key, postings);
+            byName.computeIfAbsent(ref.name, k -> new ArrayList<>(1)).add(key);
+        }
+        Integer desc = descriptorIds.get(ref.descriptor);
+        if (desc == null) {
+            desc = descriptors.size();
+            descriptors.add(ref.descriptor);
+            descriptorIds.put(ref.descriptor, desc);
+        }
+        postings.add(site, ref.line, ref.opcode, desc);
+    }
+
+    /**
+     * 引用点列表，并行数组存储
+     */
+    private static final class Postings {
+        int[] sites = new int[4];
+        int[] lines = new int[4];
+        int[] infos = new int[4];
+        int[] descs = new int[4];
+        int size;
+
+        void add(int site, int line, int info, int desc) {
+            if (size == sites.length) {
+                int capacity = size * 2;
+                sites = Arrays.copyOf(sites, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+                infos = Arrays.copyOf(infos, capacity);
+                descs = Arrays.copyOf(descs, capacity);
+            }
+            sites[size] = site;
+            lines[size] = line;
+            infos[size] = info;
+            descs[size] = desc;
+            size++;
+        }
+    }
+
+    private static final class ScanTask extends RecursiveTask<List<ClassRefs>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<ClasspathIndexer.Unit> units;
+        private final int from;
+        private final int to;
+
+        ScanTask(List<ClasspathIndexer.Unit> units, int from, int to) {
+            this.units = units;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<ClassRefs> compute() {
+            if (to - from > BATCH_SIZE) {
+                int mid = (from + to) >>> 1;
+                ScanTask left = new ScanTask(units, from, mid);
+                left.fork();
+                List<ClassRefs> right = new ScanTask(units, mid, to).compute();
+                List<ClassRefs> result = left.join();
+                result.addAll(right);
+                return result;
+            }
+            List<ClassRefs> result = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                ClasspathIndexer.Unit unit = units.get(i);
+                try {
+                    result.add(scan(unit.read()));
+                } catch (IOException | RuntimeException e) {
+                    logger.debug("Failed to scan {}: {}", unit.describe(), e.getMessage());
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class RawRef {
+        static final int METHOD = 0;
+        static final int FIELD = 1;
+        static final int STRING = 2;
+
+        final int kind;
+        final int site;
+        final int line;
+        final int opcode;
+        final String owner;
+        final String name;
+        final String descriptor;
+
+        RawRef(int kind, int site, int line, int opcode, String owner, String name, String descriptor) {
+            this.kind = kind;
+            this.site = site;
+            this.line = line;
+            this.opcode = opcode;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+    }
+
+    private static final class ClassRefs {
+        String className;
+        final List<String> sites = new ArrayList<>();
+        final List<RawRef> refs = new ArrayList<>();
+    }
+
+    /**
+     * 扫描单个类，只解析指令，跳过栈帧；保留行号用于定位
+     */
+    private static ClassRefs scan(byte[] bytecode) {
+        ClassRefs refs = new ClassRefs();
+        new ClassReader(bytecode).accept(new ClassVisitor(Opcodes.ASM9) {
+            private String owner;
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName,
+                              String[] interfaces) {
+                owner = name.replace('/', '.');
+                refs.className = name;
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature,
+                                           Object value) {
+                if (value instanceof String) {
+                    refs.sites.add(owner + "#" + name);
+                    refs.refs.add(new RawRef(RawRef.STRING, refs.sites.size() - 1, 0, FIELD_CONSTANT,
+                        null, (String) value, null));
+                }
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                             String[] exceptions) {
+                refs.sites.add(owner + "#" + name + descriptor);
+                return new SiteVisitor(refs, refs.sites.size() - 1);
+            }
+        }, ClassReader.SKIP_FRAMES);
+        return refs;
+    }
+
+    private static final class SiteVisitor extends MethodVisitor {
+        private final ClassRefs refs;
+        private final int site;
+        private int line;
+
+        SiteVisitor(ClassRefs refs, int site) {
+            super(Opcodes.ASM9);
+            this.refs = refs;
+            this.site = site;
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            this.line = line;
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            refs.refs.add(new RawRef(RawRef.METHOD, site, line, opcode, owner, name, descriptor));
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            refs.refs.add(new RawRef(RawRef.FIELD, site, line, opcode, owner, name, descriptor));
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            if (value instanceof String) {
+                refs.refs.add(new RawRef(RawRef.STRING, site, line, Opcodes.LDC, null, (String) value, null));
+            } else if (value instanceof Handle) {
+                handle((Handle) value, Opcodes.LDC);
+            }
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+                                           Object... bootstrapMethodArguments) {
+            // lambda 和方法引用的实现方法以 Handle 形式出现在引导参数里
+            for (Object arg : bootstrapMethodArguments) {
+                if (arg instanceof Handle) {
+                    handle((Handle) arg, Opcodes.INVOKEDYNAMIC);
+                } else if (arg instanceof String) {
+                    refs.refs.add(new RawRef(RawRef.STRING, site, line, Opcodes.INVOKEDYNAMIC, null, (String) arg,
+                        null));
+                }
+            }
+        }
+
+        private void handle(Handle handle, int opcode) {
+            int kind = handle.getTag() <= Opcodes.H_PUTSTATIC ? RawRef.FIELD : RawRef.METHOD;
+            refs.refs.add(new RawRef(kind, site, line, opcode, handle.getOwner(), handle.getName(), handle.getDesc()));
+        }
+    }
+}
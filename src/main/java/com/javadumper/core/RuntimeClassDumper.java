@@ -8,18 +8,21 @@ import org.slf4j.LoggerFactory;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.ProtectionDomain;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Absurdity 457676887
@@ -28,72 +31,143 @@ import java.util.concurrent.TimeUnit;
 public class RuntimeClassDumper {
     
     private static final Logger logger = LoggerFactory.getLogger(RuntimeClassDumper.class);
-    private static final Map<String, byte[]> capturedClasses = new ConcurrentHashMap<>();
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final String DUMP_JAR_NAME = "classes.jar";
     
     private final Instrumentation instrumentation;
+    private final LoadedClassIndex classIndex;
+    private final DecompileCache decompileCache = DecompileCache.shared();
     
     public RuntimeClassDumper(Instrumentation instrumentation) {
         this.instrumentation = instrumentation;
+        this.classIndex = LoadedClassIndex.install(instrumentation);
     }
 
     public byte[] captureClassBytecode(String className) throws Exception {
-        String internalName = className.replace('.', '/');
-        CountDownLatch latch = new CountDownLatch(1);
+        Class<?> targetClass = findLoadedClass(className);
+        if (targetClass == null) {
+            throw new ClassNotFoundException("Class not loaded: " + className);
+        }
+        
+        if (!instrumentation.isModifiableClass(targetClass)) {
+            throw new IllegalStateException("Class is not modifiable: " + className);
+        }
         
-        ClassFileTransformer transformer = new ClassFileTransformer() {
-            @Override
-            public byte[] transform(ClassLoader loader, String name, Class<?> classBeingRedefined,
-                                  ProtectionDomain protectionDomain, byte[] classfileBuffer) {
-                if (name != null && name.equals(internalName)) {
-                    capturedClasses.put(className, classfileBuffer.clone());
-                    latch.countDown();
+        byte[] bytecode = captureClasses(Collections.singletonList(targetClass)).get(targetClass);
+        if (bytecode == null) {
+            throw new IllegalStateException("Failed to capture bytecode: " + className);
+        }
+        return bytecode;
+    }
+
+    /**
+     * 一次 retransform 捕获多个类的字节码
+     */
+    public Map<Class<?>, byte[]> captureClasses(Collection<Class<?>> classes) throws InterruptedException {
+        Map<Class<?>, byte[]> result = new ConcurrentHashMap<>();
+        captureBatched(classes, Math.max(1, classes.size()), (clazz, bytecode) -> result.put(clazz, bytecode));
+        return result;
+    }
+
+    /**
+     * 批量捕获字节码：在 TransformDispatcher 上挂一个观察者，按 batchSize 分批调用
+     * retransformClasses(Class...)，每批只有一次 safepoint。
+     * 捕获到的是插桩规则处理之前的字节码，在回调里直接交给 consumer。
+     *
+     * @param batchSize 每批的类数，小于 1 时抛出 IllegalArgumentException
+     * @return 成功捕获的类数量
+     */
+    public int captureBatched(Collection<Class<?>> classes, int batchSize, CaptureConsumer consumer)
+            throws InterruptedException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        }
+        if (classes.isEmpty()) {
+            return 0;
+        }
+        
+        Set<Class<?>> targets = ConcurrentHashMap.newKeySet();
+        targets.addAll(classes);
+        AtomicInteger captured = new AtomicInteger();
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        
+        TransformDispatcher.ClassObserver observer = (loader, name, classBeingRedefined, classfileBuffer) -> {
+            if (classBeingRedefined != null && targets.remove(classBeingRedefined)) {
+                try {
+                    consumer.accept(classBeingRedefined, classfileBuffer.clone());
+                    captured.incrementAndGet();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                    Thread.currentThread().interrupt();
                 }
-                return null;
             }
         };
         
-        instrumentation.addTransformer(transformer, true);
+        TransformDispatcher dispatcher = TransformDispatcher.install(instrumentation);
+        dispatcher.addObserver(observer);
         
         try {
-            Class<?> targetClass = findLoadedClass(className);
-            if (targetClass == null) {
-                throw new ClassNotFoundException("Class not loaded: " + className);
-            }
-            
-            if (!instrumentation.isModifiableClass(targetClass)) {
-                throw new IllegalStateException("Class is not modifiable: " + className);
-            }
-            
-            instrumentation.retransformClasses(targetClass);
-            
-            if (!latch.await(5, TimeUnit.SECONDS)) {
-                throw new RuntimeException("Timeout waiting for class bytecode capture");
+            Class<?>[] all = classes.toArray(new Class<?>[0]);
+            for (int from = 0; from < all.length && !interrupted.get(); from += batchSize) {
+                Class<?>[] batch = Arrays.copyOfRange(all, from, Math.min(all.length, from + batchSize));
+                try {
+                    instrumentation.retransformClasses(batch);
+                } catch (Throwable t) {
+                    // 整批失败时逐个重试，避免一个坏类拖垮整批
+                    logger.debug("Batch retransform failed ({}), retrying {} classes individually",
+                        t.getMessage(), batch.length);
+                    for (Class<?> clazz : batch) {
+                        if (!targets.contains(clazz)) {
+                            continue;
+                        }
+                        try {
+                            instrumentation.retransformClasses(clazz);
+                        } catch (Throwable e) {
+                            logger.debug("Failed to capture {}: {}", clazz.getName(), e.getMessage());
+                        }
+                    }
+                }
             }
-            
-            return capturedClasses.remove(className);
-            
         } finally {
-            instrumentation.removeTransformer(transformer);
+            dispatcher.removeObserver(observer);
         }
+        
+        if (interrupted.get()) {
+            throw new InterruptedException("Bytecode capture interrupted");
+        }
+        return captured.get();
     }
 
     public String dumpClassToFile(String className, String outputDir) throws Exception {
         byte[] bytecode = captureClassBytecode(className);
         
-        Path dir = Paths.get(outputDir);
-        Files.createDirectories(dir);
-        
-        String fileName = className.replace('.', '_') + ".class";
-        Path filePath = dir.resolve(fileName);
+        Path filePath = Paths.get(outputDir).resolve(className.replace('.', '/') + ".class");
+        Files.createDirectories(filePath.getParent());
         Files.write(filePath, bytecode);
         
         logger.info("Class dumped to: {}", filePath);
         return filePath.toString();
     }
 
+    /**
+     * 类自上次反编译后未被 redefine 时直接返回缓存文本，不触发 retransform；
+     * 否则捕获字节码，相同字节码的文本仍可按哈希复用
+     */
     public String decompileToBytecodeText(String className) throws Exception {
+        Class<?> targetClass = findLoadedClass(className);
+        String cached = targetClass != null ? decompileCache.get(targetClass) : null;
+        if (cached != null) {
+            return cached;
+        }
+        
         byte[] bytecode = captureClassBytecode(className);
-        return decompile(bytecode);
+        String key = DecompileCache.key(bytecode);
+        String text = decompileCache.get(key);
+        if (text == null) {
+            text = decompile(bytecode);
+        }
+        decompileCache.put(targetClass, key, text);
+        return text;
     }
 
     public String decompile(byte[] bytecode) {
@@ -105,40 +179,43 @@ public class RuntimeClassDumper {
         return sw.toString();
     }
 
-    public void dumpAllClassesMatching(String pattern, String outputDir) throws Exception {
-        Path dir = Paths.get(outputDir);
-        Files.createDirectories(dir);
+    public int dumpAllClassesMatching(String pattern, String outputDir) throws Exception {
+        return dumpAllClassesMatching(pattern, outputDir, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 捕获到的字节码直接交给 JarDumpSink，压缩并行、写文件顺序，
+     * 输出为 outputDir/classes.jar
+     */
+    public int dumpAllClassesMatching(String pattern, String outputDir, int batchSize) throws Exception {
+        List<Class<?>> matching = classIndex.select(name -> name.contains(pattern));
+        matching.removeIf(clazz -> !instrumentation.isModifiableClass(clazz));
         
-        int count = 0;
-        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
-            String className = clazz.getName();
-            if (className.contains(pattern) && instrumentation.isModifiableClass(clazz)) {
-                try {
-                    byte[] bytecode = captureClassBytecode(className);
-                    String fileName = className.replace('.', '_') + ".class";
-                    Files.write(dir.resolve(fileName), bytecode);
-                    count++;
-                } catch (Exception e) {
-                    logger.debug("Failed to dump {}: {}", className, e.getMessage());
-                }
-            }
+        Path jarPath = Paths.get(outputDir, DUMP_JAR_NAME);
+        JarDumpSink sink = new JarDumpSink(jarPath);
+        try (sink) {
+            captureBatched(matching, batchSize, (clazz, bytecode) -> sink.add(clazz.getName(), bytecode));
+        }
+        // 条目数在 close 排空压缩队列之后才是最终值
+        int count = sink.getEntryCount();
+        if (sink.getDuplicateCount() > 0) {
+            logger.debug("Skipped {} duplicate classes", sink.getDuplicateCount());
         }
         
-        logger.info("Dumped {} classes matching '{}' to {}", count, pattern, outputDir);
+        logger.info("Dumped {} classes matching '{}' to {}", count, pattern, jarPath);
+        return count;
     }
 
     private Class<?> findLoadedClass(String className) {
-        for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
-            if (clazz.getName().equals(className)) {
-                return clazz;
-            }
-        }
-        return null;
+        return classIndex.find(className);
     }
 
     public static String generateOutputDir() {
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
         return "dumps/runtime_" + timestamp;
     }
-}
 
+    public interface CaptureConsumer {
+        void accept(Class<?> clazz, byte[] bytecode) throws InterruptedException;
+    }
+}
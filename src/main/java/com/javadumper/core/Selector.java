@@ -0,0 +1,181 @@
+package com.javadumper.core;
+
+import java.util.regex.Pattern;
+
+/**
+ * 类/方法选择器，语法：
+ * <pre>
+ *   com.acme.order.**             order 包及其子包下所有类的所有方法
+ *   com.acme.*Service#handle*     方法用 # 分隔
+ *   *Service.handle*              末段以小写字母或 &lt; 开头、或带描述符时视为方法名
+ *   com.acme.Dao#find(J)*         括号起为方法描述符模式
+ *   re:com\.acme\..*Impl#get.*    re: 前缀表示类名与方法名都是正则
+ * </pre>
+ * 类名模式中 * 不跨越包，** 跨越包，? 匹配单个字符；不含包名的模式按简单类名匹配任意包。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class Selector {
+
+    private static final String REGEX_PREFIX = "re:";
+
+    private final String source;
+    private final String classPrefix;
+    private final GlobPattern classRest;
+    private final Pattern classRegex;
+    private final GlobPattern methodGlob;
+    private final GlobPattern descriptorGlob;
+    private final Pattern methodRegex;
+    private final boolean simpleName;
+    private final boolean wildcard;
+
+    private Selector(String source, String classPrefix, GlobPattern classRest, Pattern classRegex,
+                     GlobPattern methodGlob, GlobPattern descriptorGlob, Pattern methodRegex,
+                     boolean simpleName, boolean wildcard) {
+        this.source = source;
+        this.classPrefix = classPrefix;
+        this.classRest = classRest;
+        this.simpleName = simpleName;
+        this.classRegex = classRegex;
+        this.methodGlob = methodGlob;
+        this.descriptorGlob = descriptorGlob;
+        this.methodRegex = methodRegex;
+        this.wildcard = wildcard;
+    }
+
+    public static Selector parse(String text) {
+        String source = text.trim();
+        if (source.isEmpty()) {
+            throw new IllegalArgumentException("Empty selector");
+        }
+        if (source.startsWith(REGEX_PREFIX)) {
+            return parseRegex(source);
+        }
+
+        String classPart = source;
+        String memberPart = null;
+        int hash = source.indexOf('#');
+        if (hash >= 0) {
+            classPart = source.substring(0, hash);
+            memberPart = source.substring(hash + 1);
+        } else {
+            int paren = source.indexOf('(');
+            int dot = source.lastIndexOf('.', paren >= 0 ? paren : source.length());
+            if (dot > 0 && isMemberPattern(source.substring(dot + 1))) {
+                classPart = source.substring(0, dot);
+                memberPart = source.substring(dot + 1);
+            }
+        }
+        if (classPart.isEmpty()) {
+            throw new IllegalArgumentException("Selector has no class pattern: " + text);
+        }
+
+        String internal = classPart.replace('.', '/');
+        boolean simpleName = internal.indexOf('/') < 0;
+        String prefix = simpleName ? "" : GlobPattern.literalPrefix(internal);
+        GlobPattern rest = GlobPattern.compile(internal.substring(prefix.length()), '/');
+
+        GlobPattern method = null;
+        GlobPattern descriptor = null;
+        if (memberPart != null && !memberPart.isEmpty()) {
+            int paren = memberPart.indexOf('(');
+            String name = paren >= 0 ? memberPart.substring(0, paren) : memberPart;
+            if (!name.isEmpty() && !"*".equals(name) && !"**".equals(name)) {
+                method = GlobPattern.compile(name, (char) 0);
+            }
+            if (paren >= 0) {
+                descriptor = GlobPattern.compile(memberPart.substring(paren), (char) 0);
+            }
+        }
+        return new Selector(source, prefix, rest, null, method, descriptor, null, simpleName,
+            simpleName || GlobPattern.hasWildcard(internal));
+    }
+
+    /**
+     * 精确的类名和方法名，methodName 为空表示所有方法
+     */
+    public static Selector exact(String className, String methodName) {
+        String internal = className.replace('.', '/');
+        GlobPattern method = methodName == null || methodName.isEmpty()
+            ? null : GlobPattern.compile(methodName, (char) 0);
+        String source = className.replace('/', '.') + (method != null ? "#" + methodName : "");
+        return new Selector(source, internal, GlobPattern.compile("", '/'), null, method, null, null,
+            false, false);
+    }
+
+    private static Selector parseRegex(String source) {
+        String body = source.substring(REGEX_PREFIX.length());
+        int hash = body.indexOf('#');
+        String classPart = hash >= 0 ? body.substring(0, hash) : body;
+        String memberPart = hash >= 0 ? body.substring(hash + 1) : null;
+        Pattern classRegex = Pattern.compile(classPart);
+        Pattern methodRegex = memberPart != null && !memberPart.isEmpty() ? Pattern.compile(memberPart) : null;
+        return new Selector(source, "", null, classRegex, null, null, methodRegex, false, true);
+    }
+
+    /**
+     * 末段首个非通配字符是小写字母或 &lt;，或者带描述符，按 Java 命名习惯视为方法
+     */
+    private static boolean isMemberPattern(String segment) {
+        if (segment.indexOf('(') >= 0) {
+            return true;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c != '*' && c != '?') {
+                return Character.isLowerCase(c) || c == '<' || c == '_';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * trie 中的键：类名的字面量前缀（内部名形式），正则选择器为空串
+     */
+    public String classPrefix() {
+        return classPrefix;
+    }
+
+    /**
+     * 前缀已由 trie 匹配，只检查 internalName 从 offset 开始的剩余部分
+     */
+    public boolean matchesClassRest(String internalName, int offset) {
+        if (classRegex != null) {
+            return classRegex.matcher(internalName.replace('/', '.')).matches();
+        }
+        if (simpleName) {
+            return classRest.matches(internalName, internalName.lastIndexOf('/') + 1);
+        }
+        return classRest.matches(internalName, offset);
+    }
+
+    public boolean matchesClass(String internalName) {
+        return internalName.startsWith(classPrefix) && matchesClassRest(internalName, classPrefix.length());
+    }
+
+    /**
+     * 方法正则先匹配方法名，不中再匹配 名字+描述符
+     */
+    public boolean matchesMethod(String name, String descriptor) {
+        if (methodRegex != null) {
+            return methodRegex.matcher(name).matches() || methodRegex.matcher(name + descriptor).matches();
+        }
+        if (methodGlob != null && !methodGlob.matches(name)) {
+            return false;
+        }
+        return descriptorGlob == null || descriptorGlob.matches(descriptor);
+    }
+
+    /**
+     * 类名中含通配符或为正则，会匹配多个类
+     */
+    public boolean isWildcard() {
+        return wildcard;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,116 @@
+package com.javadumper.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 把一组选择器编译成按类名前缀索引的 trie，transform 中每个被加载的类只沿 trie 走一遍类名，
+ * 前缀命中的选择器再用通配自动机检查剩余部分。
+ * 通配选择器不会选中 agent 自身和 JDK 的类，避免探针递归进入自己。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class SelectorMatcher {
+
+    private static final String AGENT_PACKAGE = "com/javadumper/";
+    private static final String[] PLATFORM_PACKAGES = {"java/", "javax/", "jdk/", "sun/", "com/sun/"};
+
+    private final SelectorTrie<Selector> trie = new SelectorTrie<>();
+    private final List<Selector> selectors;
+
+    /**
+     * 命中类之后对方法的过滤条件
+     */
+    public interface MethodFilter {
+        boolean matches(String name, String descriptor);
+    }
+
+    public SelectorMatcher(Collection<Selector> selectors) {
+        this.selectors = Collections.unmodifiableList(new ArrayList<>(selectors));
+        for (Selector selector : selectors) {
+            trie.put(selector.classPrefix(), selector);
+        }
+    }
+
+    public static SelectorMatcher of(Selector selector) {
+        return new SelectorMatcher(Collections.singletonList(selector));
+    }
+
+    /**
+     * 返回命中类的方法过滤条件，没有选择器命中时返回 null
+     */
+    public MethodFilter match(String internalName) {
+        if (!isSelectable(internalName)) {
+            return null;
+        }
+        boolean platform = isPlatform(internalName);
+        List<Selector> hits = new ArrayList<>(1);
+        trie.visitPrefixes(internalName, (selector, prefixLength) -> {
+            if ((!platform || !selector.isWildcard()) && selector.matchesClassRest(internalName, prefixLength)) {
+                hits.add(selector);
+            }
+            return true;
+        });
+        if (hits.isEmpty()) {
+            return null;
+        }
+        return methodFilter(hits);
+    }
+
+    /**
+     * 多个选择器命中同一个类时，方法满足其中任意一个即可
+     */
+    static MethodFilter methodFilter(List<Selector> hits) {
+        if (hits.size() == 1) {
+            Selector only = hits.get(0);
+            return only::matchesMethod;
+        }
+        return (name, descriptor) -> {
+            for (Selector selector : hits) {
+                if (selector.matchesMethod(name, descriptor)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    public boolean matchesClass(String internalName) {
+        return match(internalName) != null;
+    }
+
+    public List<Selector> selectors() {
+        return selectors;
+    }
+
+    /**
+     * agent 自身和 lambda 代理类永远不插桩
+     */
+    static boolean isSelectable(String internalName) {
+        return !internalName.startsWith(AGENT_PACKAGE) && internalName.indexOf("$$Lambda") < 0;
+    }
+
+    static boolean isPlatform(String internalName) {
+        for (String prefix : PLATFORM_PACKAGES) {
+            if (internalName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Selector selector : selectors) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(selector);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package com.javadumper.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按字面量前缀组织的字符 trie：查询时沿输入逐字符下行，依次交出路径上挂着的值，
+ * 只有前缀能对上的条目才会被进一步求值，条目再多也只走一遍输入长度。
+ * 构建后只读，多线程查询无需加锁。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class SelectorTrie<T> {
+
+    private final Node<T> root = new Node<>();
+    private int size;
+
+    public interface PrefixVisitor<T> {
+        /**
+         * @param prefixLength 该值的前缀长度，即输入中剩余部分的起始位置
+         * @return false 时停止遍历
+         */
+        boolean visit(T value, int prefixLength);
+    }
+
+    public void put(String prefix, T value) {
+        Node<T> node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.childOrCreate(prefix.charAt(i));
+        }
+        node.values.add(value);
+        size++;
+    }
+
+    /**
+     * 依次访问所有前缀是 key 的前缀的值，由短到长
+     */
+    public void visitPrefixes(CharSequence key, PrefixVisitor<T> visitor) {
+        Node<T> node = root;
+        int depth = 0;
+        while (node != null) {
+            for (T value : node.values) {
+                if (!visitor.visit(value, depth)) {
+                    return;
+                }
+            }
+            if (depth == key.length()) {
+                return;
+            }
+            node = node.child(key.charAt(depth++));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static final class Node<T> {
+        private static final char[] NO_KEYS = new char[0];
+
+        char[] keys = NO_KEYS;
+        Node<T>[] children;
+        final List<T> values = new ArrayList<>(1);
+
+        Node<T> child(char c) {
+            char[] k = keys;
+            for (int i = 0; i < k.length; i++) {
+                if (k[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<T> childOrCreate(char c) {
+            Node<T> existing = child(c);
+            if (existing != null) {
+                return existing;
+            }
+            int n = keys.length;
+            keys = Arrays.copyOf(keys, n + 1);
+            children = n == 0 ? (Node<T>[]) new Node<?>[1] : Arrays.copyOf(children, n + 1);
+            keys[n] = c;
+            children[n] = new Node<>();
+            return children[n];
+        }
+    }
+}
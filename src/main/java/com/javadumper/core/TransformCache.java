@@ -0,0 +1,113 @@
+package com.javadumper.core;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 转换结果缓存：键为输入字节码的 SHA-256 加规则指纹，值为转换后的字节码。
+ * 同一份字节码用同一组规则重复插桩（开关计时、还原后再开）时直接返回上次结果，跳过 ASM。
+ * 按条目数和总字节数双重限制的 LRU。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class TransformCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private static final TransformCache SHARED = new TransformCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public TransformCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * agent 内共享的实例，HotSwapper 和 TransformDispatcher 共用
+     */
+    public static TransformCache shared() {
+        return SHARED;
+    }
+
+    public static String key(byte[] input, String fingerprint) {
+        return new StringBuilder(64 + 1 + fingerprint.length())
+            .append(hash(input)).append('|').append(fingerprint).toString();
+    }
+
+    public static byte[] digest(byte[] input) {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return digest.digest(input);
+    }
+
+    /**
+     * 字节码 SHA-256 的十六进制形式，其他按内容去重的地方也用它
+     */
+    public static String hash(byte[] input) {
+        byte[] hash = digest(input);
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    public synchronized byte[] get(String key) {
+        byte[] value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    public synchronized void put(String key, byte[] value) {
+        if (value.length > maxBytes) {
+            return;
+        }
+        byte[] previous = entries.put(key, value);
+        if (previous != null) {
+            totalBytes -= previous.length;
+        }
+        totalBytes += value.length;
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && it.hasNext()) {
+            totalBytes -= it.next().getValue().length;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("entries=%d, bytes=%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d",
+            entries.size(), totalBytes, hits, misses, lookups == 0 ? 0.0 : hits * 100.0 / lookups, evictions);
+    }
+}
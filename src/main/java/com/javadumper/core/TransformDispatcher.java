@@ -0,0 +1,293 @@
+package com.javadumper.core;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * agent 唯一注册的 ClassFileTransformer。所有插桩规则的选择器合并成一棵前缀 trie，
+ * 每个被加载的类只查一次：没有规则命中直接返回 null；命中时只解析一次字节码，
+ * 把各规则的 visitor 串成一条访问链，一次 ASM 遍历完成全部插桩。
+ * 字节码观察者（dump、索引）拿到的是规则处理之前的字节码。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class TransformDispatcher implements ClassFileTransformer {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransformDispatcher.class);
+    private static volatile TransformDispatcher installed;
+
+    private final Instrumentation instrumentation;
+    private final List<ClassObserver> observers = new CopyOnWriteArrayList<>();
+    private final List<TransformRule> rules = new ArrayList<>();
+    private volatile RuleIndex index = RuleIndex.EMPTY;
+    private volatile TypeHierarchyCache hierarchy;
+    private final TransformCache cache = TransformCache.shared();
+    private final LongAdder transformedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+
+    /**
+     * 观察经过的类字节码，不修改
+     */
+    public interface ClassObserver {
+        void observe(ClassLoader loader, String className, Class<?> classBeingRedefined, byte[] classfileBuffer);
+    }
+
+    private TransformDispatcher(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * 每个 Instrumentation 只注册一个分发器，重复调用返回同一实例
+     */
+    public static TransformDispatcher install(Instrumentation instrumentation) {
+        TransformDispatcher dispatcher = installed;
+        if (dispatcher != null && dispatcher.instrumentation == instrumentation) {
+            return dispatcher;
+        }
+        synchronized (TransformDispatcher.class) {
+            dispatcher = installed;
+            if (dispatcher == null || dispatcher.instrumentation != instrumentation) {
+                dispatcher = new TransformDispatcher(instrumentation);
+                instrumentation.addTransformer(dispatcher, true);
+                installed = dispatcher;
+            }
+            return dispatcher;
+        }
+    }
+
+    public void addObserver(ClassObserver observer) {
+        observers.add(observer);
+    }
+
+    public void removeObserver(ClassObserver observer) {
+        observers.remove(observer);
+    }
+
+    public synchronized void addRule(TransformRule rule) {
+        rules.add(rule);
+        index = new RuleIndex(rules);
+    }
+
+    public synchronized boolean removeRule(TransformRule rule) {
+        boolean removed = rules.remove(rule);
+        if (removed) {
+            index = new RuleIndex(rules);
+        }
+        return removed;
+    }
+
+    /**
+     * 移除全部规则，返回被移除的规则
+     */
+    public synchronized List<TransformRule> removeAllRules() {
+        List<TransformRule> removed = new ArrayList<>(rules);
+        rules.clear();
+        index = RuleIndex.EMPTY;
+        return removed;
+    }
+
+    public synchronized List<TransformRule> getRules() {
+        return new ArrayList<>(rules);
+    }
+
+    public String stats() {
+        return String.format("rules=%d, observers=%d, transformed=%d, failed=%d",
+            index.rules.length, observers.size(), transformedCount.sum(), failedCount.sum());
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                          ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        for (ClassObserver observer : observers) {
+            try {
+                observer.observe(loader, className, classBeingRedefined, classfileBuffer);
+            } catch (RuntimeException e) {
+                logger.debug("Class observer failed on {}: {}", className, e.getMessage());
+            }
+        }
+
+        RuleIndex current = index;
+        if (className == null || current.rules.length == 0) {
+            return null;
+        }
+        List<Match> matches = current.match(className);
+        if (matches.isEmpty()) {
+            return null;
+        }
+
+        boolean loading = classBeingRedefined == null;
+        // 首次加载的字节码不会以同样内容再次出现，只缓存 retransform 的结果
+        String cacheKey = loading ? null : cacheKey(classfileBuffer, matches);
+        if (cacheKey != null) {
+            byte[] cached = cache.get(cacheKey);
+            if (cached != null) {
+                for (Match match : matches) {
+                    match.rule.reused(className, loading);
+                }
+                return cached;
+            }
+        }
+        try {
+            byte[] result = apply(loader, classfileBuffer, className, matches, loading);
+            transformedCount.increment();
+            if (cacheKey != null) {
+                cache.put(cacheKey, result);
+            }
+            return result;
+        } catch (Throwable t) {
+            if (matches.size() == 1) {
+                failedCount.increment();
+                logger.warn("Transform failed for {}: {}", className, t.toString());
+                return null;
+            }
+        }
+        // 合并遍历失败时逐条规则重试，跳过出错的规则，不让一条规则拖垮其他规则
+        byte[] bytes = classfileBuffer;
+        boolean changed = false;
+        for (Match match : matches) {
+            try {
+                bytes = apply(loader, bytes, className, Collections.singletonList(match), loading);
+                changed = true;
+            } catch (Throwable t) {
+                failedCount.increment();
+                logger.warn("Rule {} failed for {}: {}", match.rule, className, t.toString());
+            }
+        }
+        if (changed) {
+            transformedCount.increment();
+        }
+        return changed ? bytes : null;
+    }
+
+    /**
+     * 规则指纹按访问链顺序拼接，附带命中的选择器；任一规则不可缓存时返回 null
+     */
+    private static String cacheKey(byte[] classfileBuffer, List<Match> matches) {
+        StringBuilder fingerprint = new StringBuilder("retransform");
+        for (Match match : matches) {
+            String ruleFingerprint = match.rule.fingerprint();
+            if (ruleFingerprint == null) {
+                return null;
+            }
+            fingerprint.append(';').append(ruleFingerprint).append(match.selectors);
+        }
+        return TransformCache.key(classfileBuffer, fingerprint.toString());
+    }
+
+    private byte[] apply(ClassLoader loader, byte[] classfileBuffer, String className, List<Match> matches,
+                         boolean loading) {
+        ClassReader reader = new ClassReader(classfileBuffer);
+        ClassWriter writer = new HierarchyClassWriter(reader, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS,
+            hierarchy(), loader);
+        // 先注册的规则离 reader 最近，看到的是未被其他规则修改的代码
+        ClassVisitor chain = writer;
+        for (int i = matches.size() - 1; i >= 0; i--) {
+            Match match = matches.get(i);
+            chain = match.rule.visitor(chain, className, match.methods, loading);
+        }
+        reader.accept(chain, ClassReader.EXPAND_FRAMES);
+        return writer.toByteArray();
+    }
+
+    /**
+     * 延迟创建：层次缓存依赖 LoadedClassIndex，而索引安装时要先注册到分发器
+     */
+    private TypeHierarchyCache hierarchy() {
+        TypeHierarchyCache current = hierarchy;
+        if (current == null) {
+            current = TypeHierarchyCache.install(instrumentation);
+            hierarchy = current;
+        }
+        return current;
+    }
+
+    private static final class Match {
+        final TransformRule rule;
+        final List<Selector> selectors;
+        final SelectorMatcher.MethodFilter methods;
+
+        Match(TransformRule rule, List<Selector> selectors) {
+            this.rule = rule;
+            this.selectors = selectors;
+            this.methods = SelectorMatcher.methodFilter(selectors);
+        }
+    }
+
+    /**
+     * 规则快照：增删规则时整体重建，transform 中无锁读取
+     */
+    private static final class RuleIndex {
+        static final RuleIndex EMPTY = new RuleIndex(Collections.emptyList());
+
+        final TransformRule[] rules;
+        final SelectorTrie<Binding> trie = new SelectorTrie<>();
+
+        RuleIndex(List<TransformRule> source) {
+            List<TransformRule> ordered = new ArrayList<>(source);
+            // 稳定排序：同一阶段内保持注册顺序
+            ordered.sort((a, b) -> Integer.compare(a.phase(), b.phase()));
+            this.rules = ordered.toArray(new TransformRule[0]);
+            for (int order = 0; order < rules.length; order++) {
+                for (Selector selector : rules[order].selectors()) {
+                    trie.put(selector.classPrefix(), new Binding(selector, order));
+                }
+            }
+        }
+
+        List<Match> match(String internalName) {
+            if (!SelectorMatcher.isSelectable(internalName)) {
+                return Collections.emptyList();
+            }
+            boolean platform = SelectorMatcher.isPlatform(internalName);
+            List<Binding> hits = new ArrayList<>(0);
+            trie.visitPrefixes(internalName, (binding, prefixLength) -> {
+                Selector selector = binding.selector;
+                if ((!platform || !selector.isWildcard()) && selector.matchesClassRest(internalName, prefixLength)) {
+                    hits.add(binding);
+                }
+                return true;
+            });
+            if (hits.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // 按规则顺序分组，同一规则的多个选择器合并为一个方法过滤条件
+            hits.sort((a, b) -> Integer.compare(a.order, b.order));
+            List<Match> matches = new ArrayList<>();
+            int from = 0;
+            while (from < hits.size()) {
+                int order = hits.get(from).order;
+                List<Selector> selectors = new ArrayList<>(1);
+                int to = from;
+                while (to < hits.size() && hits.get(to).order == order) {
+                    selectors.add(hits.get(to++).selector);
+                }
+                matches.add(new Match(rules[order], selectors));
+                from = to;
+            }
+            return matches;
+        }
+    }
+
+    private static final class Binding {
+        final Selector selector;
+        final int order;
+
+        Binding(Selector selector, int order) {
+            this.selector = selector;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.javadumper.core;
+
+import org.objectweb.asm.ClassVisitor;
+
+import java.util.List;
+
+/**
+ * 注册到 TransformDispatcher 的插桩规则：由选择器声明要处理的类和方法，
+ * 命中时向共享的 ASM 访问链中插入自己的 ClassVisitor
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public interface TransformRule {
+
+    /**
+     * 只扫描原始代码的规则（如异常、分配统计）排在前面，
+     * 避免把其他规则注入的处理器和分配也统计进去
+     */
+    int PHASE_SCAN = 0;
+    int PHASE_WRAP = 1;
+
+    List<Selector> selectors();
+
+    /**
+     * @param next    访问链中的下一个 visitor
+     * @param methods 命中类后的方法过滤条件
+     * @param loading 首次加载（可修改方法修饰符），否则为 redefine/retransform
+     */
+    ClassVisitor visitor(ClassVisitor next, String className, SelectorMatcher.MethodFilter methods,
+                         boolean loading);
+
+    default int phase() {
+        return PHASE_WRAP;
+    }
+
+    /**
+     * 规则的规范指纹，相同指纹对相同字节码必然产生相同结果；返回 null 表示结果不可缓存
+     */
+    default String fingerprint() {
+        return null;
+    }
+
+    /**
+     * 命中转换缓存、跳过 visitor 时回调，用于补记 visitor 中的登记工作
+     */
+    default void reused(String className, boolean loading) {
+    }
+}
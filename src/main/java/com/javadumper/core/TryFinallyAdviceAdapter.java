@@ -0,0 +1,74 @@
+package com.javadumper.core;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.AdviceAdapter;
+
+/**
+ * 把方法体包进 try/finally 的 AdviceAdapter：正常返回前回调 onNormalExit，
+ * 任何异常（包括被调用方抛出、未在本方法显式 athrow 的）都会先经过
+ * onExceptionalExit 再原样抛出。注入代码需要的局部变量请用 newLocal 分配。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public abstract class TryFinallyAdviceAdapter extends AdviceAdapter {
+
+    private final Label tryStart = new Label();
+    private final Label handler = new Label();
+    private boolean entered;
+
+    protected TryFinallyAdviceAdapter(int api, MethodVisitor mv, int access, String name, String descriptor) {
+        super(api, mv, access, name, descriptor);
+    }
+
+    /**
+     * 方法入口（构造器在 super() 之后），在 try 区域之外
+     */
+    protected abstract void onEnter();
+
+    /**
+     * 正常返回前，返回值仍在栈顶
+     */
+    protected abstract void onNormalExit(int opcode);
+
+    /**
+     * 异常退出，异常对象在栈顶，回调结束后会被重新抛出
+     */
+    protected abstract void onExceptionalExit();
+
+    /**
+     * 返回 false 时不包 try/finally，只保留 onEnter/onNormalExit 回调
+     */
+    protected boolean wrapsBody() {
+        return true;
+    }
+
+    @Override
+    protected final void onMethodEnter() {
+        onEnter();
+        if (wrapsBody()) {
+            mv.visitLabel(tryStart);
+            entered = true;
+        }
+    }
+
+    @Override
+    protected final void onMethodExit(int opcode) {
+        // 显式 athrow 由异常处理器统一处理，避免重复记录
+        if (opcode != ATHROW) {
+            onNormalExit(opcode);
+        }
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        if (entered) {
+            mv.visitTryCatchBlock(tryStart, handler, handler, null);
+            mv.visitLabel(handler);
+            onExceptionalExit();
+            mv.visitInsn(ATHROW);
+        }
+        super.visitMaxs(maxStack, maxLocals);
+    }
+}
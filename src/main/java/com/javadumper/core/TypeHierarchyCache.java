@@ -0,0 +1,228 @@
+package com.javadumper.core;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 计算栈帧用的类型层次缓存：按 ClassLoader 分区记录父类和接口。
+ * 依次从正在转换的字节码、已加载的 Class 对象（反射读取，不触发加载）、
+ * 加载器可见的 .class 资源（只解析类头）获取，不会在转换过程中加载新类。
+ * redefine/retransform 不能修改父类和接口，条目无需失效，加载器回收时整区释放。
+ * 解析不到的类型不缓存：它可能稍后才生成或加载，缓存成 Object 会算出错误的栈帧。
+ * 计算公共父类时遇到解析不到的类型同样不猜测，抛出 TypeNotPresentException，由调用方放弃这次转换。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class TypeHierarchyCache {
+
+    public static final String OBJECT = "java/lang/Object";
+
+    private static volatile TypeHierarchyCache installed;
+
+    private final Instrumentation instrumentation;
+    private final LoadedClassIndex classIndex;
+    private final Map<ClassLoader, Map<String, TypeInfo>> byLoader = new WeakHashMap<>();
+    private final Map<String, TypeInfo> bootstrap = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private TypeHierarchyCache(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+        this.classIndex = LoadedClassIndex.install(instrumentation);
+    }
+
+    public static TypeHierarchyCache install(Instrumentation instrumentation) {
+        TypeHierarchyCache cache = installed;
+        if (cache != null && cache.instrumentation == instrumentation) {
+            return cache;
+        }
+        synchronized (TypeHierarchyCache.class) {
+            cache = installed;
+            if (cache == null || cache.instrumentation != instrumentation) {
+                cache = new TypeHierarchyCache(instrumentation);
+                installed = cache;
+            }
+            return cache;
+        }
+    }
+
+    public static final class TypeInfo {
+        public final String name;
+        public final String superName;
+        public final String[] interfaces;
+        public final boolean isInterface;
+
+        TypeInfo(String name, String superName, String[] interfaces, boolean isInterface) {
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+    }
+
+    /**
+     * 记录正在转换的类：加载期它还没有 Class 对象，只能从字节码取
+     */
+    public void register(ClassLoader loader, ClassReader reader) {
+        String name = reader.getClassName();
+        partition(loader).computeIfAbsent(name, k -> new TypeInfo(name, reader.getSuperName(),
+            reader.getInterfaces(), (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0));
+    }
+
+    /**
+     * 查找 loader 视角下的类型信息，找不到返回 null
+     */
+    public TypeInfo lookup(ClassLoader loader, String internalName) {
+        Map<String, TypeInfo> partition = partition(loader);
+        TypeInfo info = partition.get(internalName);
+        if (info != null) {
+            hits.increment();
+            return info;
+        }
+        misses.increment();
+        info = fromLoadedClass(loader, internalName);
+        if (info == null) {
+            info = fromResource(loader, internalName);
+        }
+        if (info != null) {
+            partition.putIfAbsent(internalName, info);
+        }
+        return info;
+    }
+
+    /**
+     * 与 ClassWriter.getCommonSuperClass 语义一致：涉及接口时返回 Object，
+     * 类型或其父类链无法解析时抛出 TypeNotPresentException
+     */
+    public String commonSuperClass(ClassLoader loader, String type1, String type2) {
+        if (type1.equals(type2)) {
+            return type1;
+        }
+        if (OBJECT.equals(type1) || OBJECT.equals(type2)) {
+            return OBJECT;
+        }
+        TypeInfo info1 = require(loader, type1);
+        TypeInfo info2 = require(loader, type2);
+        if (isAssignableFrom(loader, type1, info2)) {
+            return type1;
+        }
+        if (isAssignableFrom(loader, type2, info1)) {
+            return type2;
+        }
+        if (info1.isInterface || info2.isInterface) {
+            return OBJECT;
+        }
+        Set<String> supers1 = new HashSet<>();
+        for (TypeInfo t = info1; t.superName != null; t = require(loader, t.superName)) {
+            supers1.add(t.superName);
+        }
+        for (TypeInfo t = info2; t.superName != null; t = require(loader, t.superName)) {
+            if (supers1.contains(t.superName)) {
+                return t.superName;
+            }
+        }
+        return OBJECT;
+    }
+
+    private TypeInfo require(ClassLoader loader, String internalName) {
+        TypeInfo info = lookup(loader, internalName);
+        if (info == null) {
+            throw new TypeNotPresentException(internalName.replace('/', '.'), null);
+        }
+        return info;
+    }
+
+    /**
+     * target 是否为 type 自身、父类或实现的接口
+     */
+    private boolean isAssignableFrom(ClassLoader loader, String target, TypeInfo type) {
+        for (TypeInfo t = type; t != null; t = t.superName != null ? require(loader, t.superName) : null) {
+            if (t.name.equals(target)) {
+                return true;
+            }
+            for (String itf : t.interfaces) {
+                if (itf.equals(target) || isAssignableFrom(loader, target, require(loader, itf))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        int size = bootstrap.size();
+        synchronized (byLoader) {
+            for (Map<String, TypeInfo> partition : byLoader.values()) {
+                size += partition.size();
+            }
+        }
+        return size;
+    }
+
+    public String stats() {
+        return String.format("types=%d, hits=%d, misses=%d", size(), hits.sum(), misses.sum());
+    }
+
+    private Map<String, TypeInfo> partition(ClassLoader loader) {
+        if (loader == null) {
+            return bootstrap;
+        }
+        synchronized (byLoader) {
+            return byLoader.computeIfAbsent(loader, k -> new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * 沿委派链找已加载的类，只读取反射元数据
+     */
+    private TypeInfo fromLoadedClass(ClassLoader loader, String internalName) {
+        String className = internalName.replace('/', '.');
+        Class<?> clazz = null;
+        for (ClassLoader l = loader; l != null && clazz == null; l = l.getParent()) {
+            clazz = classIndex.peek(className, l);
+        }
+        if (clazz == null) {
+            clazz = classIndex.peek(className, null);
+        }
+        if (clazz == null) {
+            return null;
+        }
+        Class<?> superclass = clazz.getSuperclass();
+        Class<?>[] itfs = clazz.getInterfaces();
+        String[] interfaces = new String[itfs.length];
+        for (int i = 0; i < itfs.length; i++) {
+            interfaces[i] = itfs[i].getName().replace('.', '/');
+        }
+        return new TypeInfo(internalName, superclass != null ? superclass.getName().replace('.', '/') : null,
+            interfaces, clazz.isInterface());
+    }
+
+    /**
+     * 读取 .class 资源的类头，不定义类
+     */
+    private TypeInfo fromResource(ClassLoader loader, String internalName) {
+        String resource = internalName + ".class";
+        try (InputStream in = loader != null
+                ? loader.getResourceAsStream(resource) : ClassLoader.getSystemResourceAsStream(resource)) {
+            if (in == null) {
+                return null;
+            }
+            ClassReader reader = new ClassReader(in);
+            return new TypeInfo(internalName, reader.getSuperName(), reader.getInterfaces(),
+                (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
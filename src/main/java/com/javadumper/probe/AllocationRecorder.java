@@ -0,0 +1,306 @@
+package com.javadumper.probe;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * ALLOCATION 模式的记录器。每个 NEW/NEWARRAY/ANEWARRAY/MULTIANEWARRAY 指令在插桩时
+ * 注册为一个分配点，运行时只累加该点的分段计数器（LongAdder），不持有对象引用。
+ * 数组字节数在分配时按长度估算；普通对象的浅大小在出报表时通过反射估算一次。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class AllocationRecorder {
+
+    public static final int KIND_OBJECT = 0;
+    public static final int KIND_ARRAY = 1;
+    public static final int KIND_MULTI_ARRAY = 2;
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile Site[] sites = new Site[256];
+    private static int nextId;
+
+    private static final int REF_SIZE = compressedOops() ? 4 : 8;
+    private static final int OBJECT_HEADER = REF_SIZE == 4 ? 12 : 16;
+    private static final int ARRAY_HEADER = REF_SIZE == 4 ? 16 : 24;
+
+    private AllocationRecorder() {
+    }
+
+    /**
+     * 注册分配点，同一方法同一行同一类型的第 N 个分配指令返回相同编号
+     *
+     * @param type NEW 为内部类名，其余三种数组分配都是完整的数组描述符（ANEWARRAY 由元素类型拼出）
+     */
+    public static int registerSite(int methodId, int line, int ordinal, String type, int kind) {
+        String key = methodId + ":" + line + ":" + ordinal + ":" + type + ":" + kind;
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (AllocationRecorder.class) {
+            id = ids.get(key);
+            if (id == null) {
+                id = nextId++;
+                Site[] current = sites;
+                if (id >= current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                }
+                current[id] = new Site(methodId, line, type, kind);
+                sites = current;
+                ids.put(key, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * 普通对象：NEW 指令之前调用
+     */
+    public static void record(int siteId) {
+        sites[siteId].count.increment();
+    }
+
+    /**
+     * 一维数组：数组长度已 DUP 到栈上，NEWARRAY/ANEWARRAY 之前调用
+     */
+    public static void recordArray(int length, int siteId) {
+        Site site = sites[siteId];
+        site.count.increment();
+        if (length > 0) {
+            site.bytes.add(align(ARRAY_HEADER + (long) length * site.elementSize));
+        }
+    }
+
+    /**
+     * 多维数组：结果已 DUP 到栈上，MULTIANEWARRAY 之后调用，按实际分配的各层数组计算
+     */
+    public static void recordMultiArray(Object array, int siteId) {
+        Site site = sites[siteId];
+        site.count.increment();
+        site.bytes.add(sizeOfArrayTree(array));
+    }
+
+    private static long sizeOfArrayTree(Object array) {
+        if (array == null) {
+            return 0;
+        }
+        int length = Array.getLength(array);
+        Class<?> component = array.getClass().getComponentType();
+        long size = align(ARRAY_HEADER + (long) length * fieldSize(component));
+        if (component.isArray()) {
+            Object[] children = (Object[]) array;
+            for (Object child : children) {
+                size += sizeOfArrayTree(child);
+            }
+        }
+        return size;
+    }
+
+    public static synchronized void reset() {
+        Site[] current = sites;
+        for (int i = 0; i < nextId; i++) {
+            current[i].count.reset();
+            current[i].bytes.reset();
+        }
+    }
+
+    /**
+     * 按估算字节数排序输出前 N 个分配点
+     *
+     * @param resolver 按类名查找已加载的类，用于估算普通对象的浅大小，找不到返回 null
+     */
+    public static String report(int topN, Function<String, Class<?>> resolver) {
+        List<SiteStats> stats = new ArrayList<>();
+        long totalCount = 0;
+        long totalBytes = 0;
+
+        Site[] current = sites;
+        int size;
+        synchronized (AllocationRecorder.class) {
+            size = nextId;
+        }
+        for (int i = 0; i < size; i++) {
+            Site site = current[i];
+            long count = site.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            long bytes = site.bytes.sum();
+            if (site.kind == KIND_OBJECT) {
+                bytes = count * site.instanceSize(resolver);
+            }
+            stats.add(new SiteStats(site, count, bytes));
+            totalCount += count;
+            totalBytes += bytes;
+        }
+
+        if (stats.isEmpty()) {
+            return "No allocation data";
+        }
+
+        stats.sort((a, b) -> b.bytes != a.bytes ? Long.compare(b.bytes, a.bytes) : Long.compare(b.count, a.count));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Allocation sites: %d, objects: %d, estimated bytes: %d%n%n",
+            stats.size(), totalCount, totalBytes));
+        sb.append(String.format("%12s %14s %7s  %-32s %s%n", "Count", "Bytes", "Bytes%", "Type", "Site"));
+        int limit = Math.min(topN, stats.size());
+        for (int i = 0; i < limit; i++) {
+            SiteStats s = stats.get(i);
+            sb.append(String.format("%12d %14d %6.2f%%  %-32s %s%s%n",
+                s.count, s.bytes, totalBytes > 0 ? s.bytes * 100.0 / totalBytes : 0,
+                s.site.typeName(), MethodRegistry.shortNameOf(s.site.methodId),
+                s.site.line > 0 ? ":" + s.site.line : ""));
+        }
+        return sb.toString().trim();
+    }
+
+    static long instanceSize(Class<?> clazz) {
+        long size = OBJECT_HEADER;
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    size += fieldSize(field.getType());
+                }
+            }
+        }
+        return align(size);
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return REF_SIZE;
+        }
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static int descriptorSize(char descriptor) {
+        switch (descriptor) {
+            case 'J':
+            case 'D':
+                return 8;
+            case 'I':
+            case 'F':
+                return 4;
+            case 'S':
+            case 'C':
+                return 2;
+            case 'Z':
+            case 'B':
+                return 1;
+            default:
+                return REF_SIZE;
+        }
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static boolean compressedOops() {
+        try {
+            com.sun.management.HotSpotDiagnosticMXBean bean =
+                ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+            return bean == null || Boolean.parseBoolean(bean.getVMOption("UseCompressedOops").getValue());
+        } catch (RuntimeException | LinkageError e) {
+            return true;
+        }
+    }
+
+    private static final class Site {
+        final int methodId;
+        final int line;
+        final String type;
+        final int kind;
+        final int elementSize;
+        final LongAdder count = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        volatile long instanceSize = -1;
+
+        Site(int methodId, int line, String type, int kind) {
+            this.methodId = methodId;
+            this.line = line;
+            this.type = type;
+            this.kind = kind;
+            // 一维数组的描述符去掉开头的 '[' 就是元素类型，引用和嵌套数组都按引用大小
+            this.elementSize = kind == KIND_ARRAY ? descriptorSize(type.charAt(1)) : REF_SIZE;
+        }
+
+        long instanceSize(Function<String, Class<?>> resolver) {
+            long size = instanceSize;
+            if (size < 0) {
+                Class<?> clazz = resolver != null ? resolver.apply(type.replace('/', '.')) : null;
+                if (clazz == null) {
+                    // 类还未加载或不可见时只按对象头计算，下次再尝试
+                    return align(OBJECT_HEADER);
+                }
+                size = AllocationRecorder.instanceSize(clazz);
+                instanceSize = size;
+            }
+            return size;
+        }
+
+        String typeName() {
+            return kind == KIND_OBJECT ? type.replace('/', '.') : arrayTypeName(type);
+        }
+
+        private static String arrayTypeName(String descriptor) {
+            int dims = 0;
+            while (descriptor.charAt(dims) == '[') {
+                dims++;
+            }
+            StringBuilder sb = new StringBuilder(elementName(descriptor.substring(dims)));
+            for (int i = 0; i < dims; i++) {
+                sb.append("[]");
+            }
+            return sb.toString();
+        }
+    }
+
+    private static String elementName(String descriptor) {
+        switch (descriptor.charAt(0)) {
+            case 'Z': return "boolean";
+            case 'B': return "byte";
+            case 'C': return "char";
+            case 'S': return "short";
+            case 'I': return "int";
+            case 'J': return "long";
+            case 'F': return "float";
+            case 'D': return "double";
+            default:
+                return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+        }
+    }
+
+    private static final class SiteStats {
+        final Site site;
+        final long count;
+        final long bytes;
+
+        SiteStats(Site site, long count, long bytes) {
+            this.site = site;
+            this.count = count;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.javadumper.probe;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PARAMETER_LOG 模式的记录器。注入代码在方法入口调用
+ * {@code ArgumentRecorder.begin(methodId).putInt(a).putObject(b)...commit()}，
+ * 参数以二进制写入每线程一个的堆外变长环形缓冲：基本类型写原值，引用只写摘要
+ * （类型编号、identityHashCode、数组/字符串长度、字符串前缀），热路径不分配对象。
+ * 解码成文本在 ProbeDrainer 的后台线程完成。
+ *
+ * 记录布局（8 字节对齐）：length(4) | methodId(4) | nanoTime(8) | argCount(1) | 参数...
+ * length 为 -1 表示填充，读到时跳回缓冲开头。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class ArgumentRecorder {
+
+    private static final int RING_BYTES = 1 << 18;
+    private static final int MAX_RECORD = 1024;
+    private static final int HEADER = 17;
+    private static final int PADDING = -1;
+    private static final int STRING_PREFIX = 16;
+    private static final int RECENT_CAPACITY = 10000;
+
+    private static final byte TAG_BOOLEAN = 'Z';
+    private static final byte TAG_BYTE = 'B';
+    private static final byte TAG_CHAR = 'C';
+    private static final byte TAG_SHORT = 'S';
+    private static final byte TAG_INT = 'I';
+    private static final byte TAG_LONG = 'J';
+    private static final byte TAG_FLOAT = 'F';
+    private static final byte TAG_DOUBLE = 'D';
+    private static final byte TAG_OBJECT = 'L';
+    private static final byte TAG_STRING = 'T';
+    private static final byte TAG_ARRAY = '[';
+    private static final byte TAG_NULL = 'N';
+    private static final byte TAG_TRUNCATED = '.';
+
+    private static final List<Buffer> buffers = new CopyOnWriteArrayList<>();
+    private static final AtomicLong droppedTotal = new AtomicLong();
+    private static final Deque<String> recent = new ArrayDeque<>();
+    private static final ThreadLocal<Buffer> localBuffer = ThreadLocal.withInitial(ArgumentRecorder::newBuffer);
+
+    static {
+        ProbeDrainer.register(ArgumentRecorder::drain);
+    }
+
+    private ArgumentRecorder() {
+    }
+
+    public static Buffer begin(int methodId) {
+        return localBuffer.get().begin(methodId);
+    }
+
+    private static Buffer newBuffer() {
+        Buffer buffer = new Buffer(Thread.currentThread());
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    public static long getDroppedCount() {
+        long dropped = droppedTotal.get();
+        for (Buffer buffer : buffers) {
+            dropped += buffer.dropped;
+        }
+        return dropped;
+    }
+
+    /**
+     * 取出并清空最多 max 条最新的已解码调用
+     */
+    public static List<String> take(int max) {
+        ProbeDrainer.drainNow();
+        synchronized (recent) {
+            List<String> result = new ArrayList<>(Math.min(max, recent.size()));
+            while (recent.size() > max) {
+                recent.removeFirst();
+            }
+            result.addAll(recent);
+            recent.clear();
+            return result;
+        }
+    }
+
+    static void drain() {
+        StringBuilder sb = new StringBuilder();
+        for (Buffer buffer : buffers) {
+            buffer.drain(sb);
+            if (!buffer.isOwnerAlive() && buffer.isEmpty()) {
+                droppedTotal.addAndGet(buffer.dropped);
+                buffers.remove(buffer);
+            }
+        }
+    }
+
+    private static void publish(String line) {
+        synchronized (recent) {
+            if (recent.size() >= RECENT_CAPACITY) {
+                recent.removeFirst();
+            }
+            recent.addLast(line);
+        }
+    }
+
+    /**
+     * 每线程的写缓冲，只由所属线程写、排空线程读。
+     * put 方法返回自身以便注入代码链式调用；begin 时空间不足则本次记录整体丢弃。
+     */
+    public static final class Buffer {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(RING_BYTES);
+        private final int mask = RING_BYTES - 1;
+        private final long threadId;
+        private final WeakReference<Thread> owner;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        // 以下字段只由所属线程读写
+        private long producerTail;
+        private long headCache;
+        private int recordStart;
+        private int position;
+        private int limit;
+        private int argCount;
+        private boolean skipping;
+        private volatile long dropped;
+
+        Buffer(Thread thread) {
+            this.threadId = thread.getId();
+            this.owner = new WeakReference<>(thread);
+        }
+
+        Buffer begin(int methodId) {
+            long t = producerTail;
+            int offset = (int) (t & mask);
+            int contiguous = RING_BYTES - offset;
+            int needed = contiguous < MAX_RECORD ? contiguous + MAX_RECORD : MAX_RECORD;
+            if (t + needed - headCache > RING_BYTES) {
+                headCache = head.get();
+                if (t + needed - headCache > RING_BYTES) {
+                    skipping = true;
+                    dropped++;
+                    return this;
+                }
+            }
+            if (contiguous < MAX_RECORD) {
+                // 尾部放不下一条最大记录，写填充标记后从头开始
+                buffer.putInt(offset, PADDING);
+                t += contiguous;
+                producerTail = t;
+                offset = 0;
+            }
+            skipping = false;
+            recordStart = offset;
+            limit = offset + MAX_RECORD;
+            buffer.putInt(offset + 4, methodId);
+            buffer.putLong(offset + 8, System.nanoTime());
+            position = offset + HEADER;
+            argCount = 0;
+            return this;
+        }
+
+        private boolean reserve(int bytes) {
+            if (skipping) {
+                return false;
+            }
+            if (position + bytes + 1 > limit) {
+                // 超长记录截断，保留一个字节写截断标记
+                if (position < limit) {
+                    buffer.put(position++, TAG_TRUNCATED);
+                }
+                skipping = true;
+                return false;
+            }
+            argCount++;
+            return true;
+        }
+
+        public Buffer putBoolean(boolean value) {
+            if (reserve(2)) {
+                buffer.put(position, TAG_BOOLEAN);
+                buffer.put(position + 1, (byte) (value ? 1 : 0));
+                position += 2;
+            }
+            return this;
+        }
+
+        public Buffer putByte(byte value) {
+            if (reserve(2)) {
+                buffer.put(position, TAG_BYTE);
+                buffer.put(position + 1, value);
+                position += 2;
+            }
+            return this;
+        }
+
+        public Buffer putChar(char value) {
+            if (reserve(3)) {
+                buffer.put(position, TAG_CHAR);
+                buffer.putChar(position + 1, value);
+                position += 3;
+            }
+            return this;
+        }
+
+        public Buffer putShort(short value) {
+            if (reserve(3)) {
+                buffer.put(position, TAG_SHORT);
+                buffer.putShort(position + 1, value);
+                position += 3;
+            }
+            return this;
+        }
+
+        public Buffer putInt(int value) {
+            if (reserve(5)) {
+                buffer.put(position, TAG_INT);
+                buffer.putInt(position + 1, value);
+                position += 5;
+            }
+            return this;
+        }
+
+        public Buffer putLong(long value) {
+            if (reserve(9)) {
+                buffer.put(position, TAG_LONG);
+                buffer.putLong(position + 1, value);
+                position += 9;
+            }
+            return this;
+        }
+
+        public Buffer putFloat(float value) {
+            if (reserve(5)) {
+                buffer.put(position, TAG_FLOAT);
+                buffer.putFloat(position + 1, value);
+                position += 5;
+            }
+            return this;
+        }
+
+        public Buffer putDouble(double value) {
+            if (reserve(9)) {
+                buffer.put(position, TAG_DOUBLE);
+                buffer.putDouble(position + 1, value);
+                position += 9;
+            }
+            return this;
+        }
+
+        /**
+         * 引用参数只写摘要：类型编号 + identityHashCode，数组加长度，字符串加长度和前缀
+         */
+        public Buffer putObject(Object value) {
+            if (value == null) {
+                if (reserve(1)) {
+                    buffer.put(position++, TAG_NULL);
+                }
+                return this;
+            }
+            if (value instanceof String) {
+                String s = (String) value;
+                int prefix = Math.min(s.length(), STRING_PREFIX);
+                if (reserve(13 + prefix * 2)) {
+                    buffer.put(position, TAG_STRING);
+                    buffer.putInt(position + 1, System.identityHashCode(s));
+                    buffer.putInt(position + 5, s.length());
+                    buffer.putInt(position + 9, prefix);
+                    int p = position + 13;
+                    for (int i = 0; i < prefix; i++, p += 2) {
+                        buffer.putChar(p, s.charAt(i));
+                    }
+                    position = p;
+                }
+                return this;
+            }
+            Class<?> type = value.getClass();
+            boolean array = type.isArray();
+            if (reserve(array ? 13 : 9)) {
+                buffer.put(position, array ? TAG_ARRAY : TAG_OBJECT);
+                buffer.putInt(position + 1, TypeRegistry.idOf(type));
+                buffer.putInt(position + 5, System.identityHashCode(value));
+                position += 9;
+                if (array) {
+                    buffer.putInt(position, Array.getLength(value));
+                    position += 4;
+                }
+            }
+            return this;
+        }
+
+        public void commit() {
+            if (skipping && position <= recordStart) {
+                return;
+            }
+            buffer.putInt(recordStart, position - recordStart);
+            buffer.put(recordStart + 16, (byte) Math.min(argCount, 255));
+            int size = (position - recordStart + 7) & ~7;
+            producerTail += size;
+            skipping = true;
+            position = recordStart;
+            tail.lazySet(producerTail);
+        }
+
+        void drain(StringBuilder sb) {
+            long h = head.get();
+            long t = tail.get();
+            while (h < t) {
+                int offset = (int) (h & mask);
+                int length = buffer.getInt(offset);
+                if (length == PADDING) {
+                    h += RING_BYTES - offset;
+                    continue;
+                }
+                sb.setLength(0);
+                decode(offset, length, sb);
+                publish(sb.toString());
+                h += (length + 7) & ~7;
+            }
+            head.lazySet(t);
+        }
+
+        private void decode(int offset, int length, StringBuilder sb) {
+            int methodId = buffer.getInt(offset + 4);
+            long nanoTime = buffer.getLong(offset + 8);
+            sb.append('[').append(nanoTime).append("] tid=").append(threadId).append(' ')
+                .append(MethodRegistry.shortNameOf(methodId)).append('(');
+            int p = offset + HEADER;
+            int end = offset + length;
+            boolean first = true;
+            while (p < end) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                byte tag = buffer.get(p++);
+                switch (tag) {
+                    case TAG_BOOLEAN:
+                        sb.append(buffer.get(p++) != 0);
+                        break;
+                    case TAG_BYTE:
+                        sb.append(buffer.get(p++));
+                        break;
+                    case TAG_CHAR:
+                        sb.append('\'').append(buffer.getChar(p)).append('\'');
+                        p += 2;
+                        break;
+                    case TAG_SHORT:
+                        sb.append(buffer.getShort(p));
+                        p += 2;
+                        break;
+                    case TAG_INT:
+                        sb.append(buffer.getInt(p));
+                        p += 4;
+                        break;
+                    case TAG_LONG:
+                        sb.append(buffer.getLong(p)).append('L');
+                        p += 8;
+                        break;
+                    case TAG_FLOAT:
+                        sb.append(buffer.getFloat(p)).append('f');
+                        p += 4;
+                        break;
+                    case TAG_DOUBLE:
+                        sb.append(buffer.getDouble(p));
+                        p += 8;
+                        break;
+                    case TAG_NULL:
+                        sb.append("null");
+                        break;
+                    case TAG_STRING: {
+                        int hash = buffer.getInt(p);
+                        int len = buffer.getInt(p + 4);
+                        int prefix = buffer.getInt(p + 8);
+                        p += 12;
+                        sb.append('"');
+                        for (int i = 0; i < prefix; i++, p += 2) {
+                            sb.append(buffer.getChar(p));
+                        }
+                        sb.append(prefix < len ? "...\"" : "\"")
+                            .append("(len=").append(len).append(", @").append(Integer.toHexString(hash)).append(')');
+                        break;
+                    }
+                    case TAG_OBJECT:
+                        sb.append(TypeRegistry.nameOf(buffer.getInt(p)))
+                            .append('@').append(Integer.toHexString(buffer.getInt(p + 4)));
+                        p += 8;
+                        break;
+                    case TAG_ARRAY:
+                        sb.append(TypeRegistry.nameOf(buffer.getInt(p)))
+                            .append('@').append(Integer.toHexString(buffer.getInt(p + 4)))
+                            .append("(len=").append(buffer.getInt(p + 8)).append(')');
+                        p += 12;
+                        break;
+                    default:
+                        sb.append("...");
+                        p = end;
+                }
+            }
+            sb.append(')');
+        }
+
+        boolean isEmpty() {
+            return head.get() == tail.get();
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+    }
+
+    /**
+     * 类型编号表：ClassValue 把编号挂在 Class 上，查询不加锁也不分配
+     */
+    static final class TypeRegistry {
+        private static volatile String[] names = new String[256];
+        private static int nextId;
+
+        private static final ClassValue<Integer> ids = new ClassValue<Integer>() {
+            @Override
+            protected Integer computeValue(Class<?> type) {
+                return register(type.getTypeName());
+            }
+        };
+
+        static int idOf(Class<?> type) {
+            return ids.get(type);
+        }
+
+        private static synchronized int register(String name) {
+            int id = nextId++;
+            String[] current = names;
+            if (id >= current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[id] = name;
+            names = current;
+            return id;
+        }
+
+        static String nameOf(int id) {
+            String[] current = names;
+            String name = id >= 0 && id < current.length ? current[id] : null;
+            return name != null ? name : "#" + id;
+        }
+    }
+}
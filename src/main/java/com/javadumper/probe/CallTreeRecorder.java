@@ -0,0 +1,232 @@
+package com.javadumper.probe;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 调用树记录器：每个线程维护一棵按调用路径聚合的树，节点记录调用次数、总耗时和自身耗时。
+ * 只有所属线程写树，导出时其他线程直接读取，数值可能有轻微的不一致，对剖析足够。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class CallTreeRecorder {
+
+    private static final int MAX_DEPTH = 512;
+
+    private static final List<ThreadTree> trees = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<ThreadTree> localTree = ThreadLocal.withInitial(() -> {
+        ThreadTree tree = new ThreadTree(Thread.currentThread());
+        trees.add(tree);
+        return tree;
+    });
+    private static volatile int generation;
+
+    private CallTreeRecorder() {
+    }
+
+    public static void enter(int methodId) {
+        localTree.get().enter(methodId);
+    }
+
+    public static void exit(int methodId) {
+        localTree.get().exit(methodId);
+    }
+
+    /**
+     * 清空所有线程的调用树；各线程在下一次从栈底进入时换新树
+     */
+    public static void reset() {
+        generation++;
+        trees.removeIf(tree -> !tree.isOwnerAlive());
+    }
+
+    /**
+     * 按线程输出缩进的调用树
+     */
+    public static String report(int maxDepth) {
+        StringBuilder sb = new StringBuilder();
+        int current = generation;
+        for (ThreadTree tree : trees) {
+            if (tree.generation != current || tree.root.childCount == 0) {
+                continue;
+            }
+            sb.append("Thread: ").append(tree.threadName).append("\n");
+            sb.append(String.format("  %-10s %12s %12s  %s%n", "Calls", "Total(ms)", "Self(ms)", "Method"));
+            Node[] children = tree.root.children;
+            int count = Math.min(tree.root.childCount, children.length);
+            for (int i = 0; i < count; i++) {
+                appendNode(sb, children[i], 0, maxDepth);
+            }
+            sb.append("\n");
+        }
+        return sb.length() == 0 ? "No call tree data" : sb.toString().trim();
+    }
+
+    private static void appendNode(StringBuilder sb, Node node, int depth, int maxDepth) {
+        if (node == null || depth >= maxDepth) {
+            return;
+        }
+        char[] indent = new char[depth * 2];
+        Arrays.fill(indent, ' ');
+        sb.append(String.format("  %-10d %12.3f %12.3f  %s%s%n",
+            node.count, node.totalNanos / 1e6, node.selfNanos() / 1e6,
+            new String(indent), MethodRegistry.shortNameOf(node.methodId)));
+        Node[] children = node.children;
+        int count = Math.min(node.childCount, children.length);
+        for (int i = 0; i < count; i++) {
+            appendNode(sb, children[i], depth + 1, maxDepth);
+        }
+    }
+
+    /**
+     * 导出火焰图用的 collapsed stack 格式：frame1;frame2;... 自身耗时(微秒)
+     */
+    public static int exportCollapsed(Path path) throws IOException {
+        Map<String, Long> stacks = new TreeMap<>();
+        int current = generation;
+        for (ThreadTree tree : trees) {
+            if (tree.generation == current) {
+                collect(tree.root, "", stacks);
+            }
+        }
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> e : stacks.entrySet()) {
+                writer.write(e.getKey());
+                writer.write(' ');
+                writer.write(Long.toString(e.getValue()));
+                writer.newLine();
+            }
+        }
+        return stacks.size();
+    }
+
+    private static void collect(Node node, String prefix, Map<String, Long> stacks) {
+        Node[] children = node.children;
+        int count = Math.min(node.childCount, children.length);
+        for (int i = 0; i < count; i++) {
+            Node child = children[i];
+            if (child == null) {
+                continue;
+            }
+            String path = prefix.isEmpty()
+                ? MethodRegistry.shortNameOf(child.methodId)
+                : prefix + ";" + MethodRegistry.shortNameOf(child.methodId);
+            long selfMicros = child.selfNanos() / 1000;
+            if (selfMicros > 0) {
+                stacks.merge(path, selfMicros, Long::sum);
+            }
+            collect(child, path, stacks);
+        }
+    }
+
+    private static final class ThreadTree {
+        private final String threadName;
+        private final WeakReference<Thread> owner;
+        private final Node[] stack = new Node[MAX_DEPTH];
+        private final long[] startTimes = new long[MAX_DEPTH];
+        private int depth;
+        private int overflow;
+        private volatile int generation = CallTreeRecorder.generation;
+        private volatile Node root = new Node(-1, null);
+
+        ThreadTree(Thread thread) {
+            this.threadName = thread.getName();
+            this.owner = new WeakReference<>(thread);
+        }
+
+        void enter(int methodId) {
+            if (depth == 0 && generation != CallTreeRecorder.generation) {
+                root = new Node(-1, null);
+                generation = CallTreeRecorder.generation;
+            }
+            if (depth >= MAX_DEPTH) {
+                overflow++;
+                return;
+            }
+            Node parent = depth == 0 ? root : stack[depth - 1];
+            stack[depth] = parent.child(methodId);
+            startTimes[depth] = System.nanoTime();
+            depth++;
+        }
+
+        void exit(int methodId) {
+            if (overflow > 0) {
+                overflow--;
+                return;
+            }
+            long now = System.nanoTime();
+            // 追踪中途开启时可能出现不成对的 exit，向下找匹配的帧
+            int level = depth - 1;
+            while (level >= 0 && stack[level].methodId != methodId) {
+                level--;
+            }
+            if (level < 0) {
+                return;
+            }
+            Node node = stack[level];
+            long elapsed = now - startTimes[level];
+            node.count++;
+            node.totalNanos += elapsed;
+            if (node.parent != null) {
+                node.parent.childNanos += elapsed;
+            }
+            for (int i = level; i < depth; i++) {
+                stack[i] = null;
+            }
+            depth = level;
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+    }
+
+    private static final class Node {
+        final int methodId;
+        final Node parent;
+        Node[] children = new Node[2];
+        int childCount;
+        long count;
+        long totalNanos;
+        long childNanos;
+
+        Node(int methodId, Node parent) {
+            this.methodId = methodId;
+            this.parent = parent;
+        }
+
+        Node child(int id) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].methodId == id) {
+                    return children[i];
+                }
+            }
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            Node node = new Node(id, this);
+            children[childCount] = node;
+            childCount++;
+            return node;
+        }
+
+        long selfNanos() {
+            return Math.max(0, totalNanos - childNanos);
+        }
+    }
+}
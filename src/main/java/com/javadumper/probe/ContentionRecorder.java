@@ -0,0 +1,155 @@
+package com.javadumper.probe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CONTENTION 模式的记录器：注入代码在 MONITORENTER 前后各取一次 nanoTime，
+ * 把获取锁的等待时间按 (调用点, 锁类型) 写入直方图。
+ * 锁类型按类名聚合，不持有锁对象或其 Class 的引用。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class ContentionRecorder {
+
+    public static final int KIND_BLOCK = 0;
+    public static final int KIND_METHOD = 1;
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile Site[] sites = new Site[64];
+    private static int nextId;
+
+    private ContentionRecorder() {
+    }
+
+    /**
+     * 注册一个加锁点：synchronized 块的 MONITORENTER，或被改写的 synchronized 方法入口
+     */
+    public static int registerSite(int methodId, int line, int ordinal, int kind) {
+        String key = methodId + ":" + line + ":" + ordinal + ":" + kind;
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (ContentionRecorder.class) {
+            id = ids.get(key);
+            if (id == null) {
+                id = nextId++;
+                Site[] current = sites;
+                if (id >= current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                }
+                current[id] = new Site(methodId, line, kind);
+                sites = current;
+                ids.put(key, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * MONITORENTER 完成后调用
+     */
+    public static void record(Object lock, long waitNanos, int siteId) {
+        Site site = sites[siteId];
+        Map<String, LatencyHistogram> byLock;
+        String lockName;
+        if (lock instanceof Class) {
+            byLock = site.classLocks;
+            lockName = ((Class<?>) lock).getName();
+        } else {
+            byLock = site.instanceLocks;
+            lockName = lock.getClass().getName();
+        }
+        LatencyHistogram histogram = byLock.get(lockName);
+        if (histogram == null) {
+            histogram = byLock.computeIfAbsent(lockName, k -> new LatencyHistogram());
+        }
+        histogram.record(waitNanos);
+    }
+
+    public static List<LockStats> snapshot(boolean reset) {
+        List<LockStats> result = new ArrayList<>();
+        Site[] current = sites;
+        int size;
+        synchronized (ContentionRecorder.class) {
+            size = nextId;
+        }
+        for (int i = 0; i < size; i++) {
+            current[i].snapshot(reset, result);
+        }
+        return result;
+    }
+
+    /**
+     * 按总等待时间排序输出前 N 个 (锁, 调用点)
+     */
+    public static String report(int topN, boolean reset) {
+        List<LockStats> stats = snapshot(reset);
+        if (stats.isEmpty()) {
+            return "No contention data";
+        }
+        stats.sort((a, b) -> Long.compare(b.histogram.sum, a.histogram.sum));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %10s %12s %10s %10s %10s  %s%n",
+            "Lock", "Acquires", "Total(ms)", "Mean(us)", "P99(us)", "Max(us)", "Site"));
+        int limit = Math.min(topN, stats.size());
+        for (int i = 0; i < limit; i++) {
+            LockStats s = stats.get(i);
+            LatencyHistogram.Snapshot h = s.histogram;
+            sb.append(String.format("%-40s %10d %12.3f %10.1f %10.1f %10.1f  %s%n",
+                s.lock, h.count, h.sum / 1e6, h.mean() / 1000.0,
+                h.percentile(99) / 1000.0, h.max / 1000.0, s.site));
+        }
+        return sb.toString().trim();
+    }
+
+    private static final class Site {
+        final int methodId;
+        final int line;
+        final int kind;
+        final Map<String, LatencyHistogram> instanceLocks = new ConcurrentHashMap<>();
+        final Map<String, LatencyHistogram> classLocks = new ConcurrentHashMap<>();
+
+        Site(int methodId, int line, int kind) {
+            this.methodId = methodId;
+            this.line = line;
+            this.kind = kind;
+        }
+
+        void snapshot(boolean reset, List<LockStats> result) {
+            String name = MethodRegistry.shortNameOf(methodId)
+                + (line > 0 ? ":" + line : "")
+                + (kind == KIND_METHOD ? " (synchronized method)" : "");
+            collect(instanceLocks, "", name, reset, result);
+            collect(classLocks, "class ", name, reset, result);
+        }
+
+        private static void collect(Map<String, LatencyHistogram> byLock, String prefix, String site,
+                                    boolean reset, List<LockStats> result) {
+            for (Map.Entry<String, LatencyHistogram> e : byLock.entrySet()) {
+                LatencyHistogram.Snapshot snapshot = e.getValue().snapshot(reset);
+                if (snapshot.count > 0) {
+                    result.add(new LockStats(prefix + e.getKey(), site, snapshot));
+                }
+            }
+        }
+    }
+
+    public static class LockStats {
+        public final String lock;
+        public final String site;
+        public final LatencyHistogram.Snapshot histogram;
+
+        LockStats(String lock, String site, LatencyHistogram.Snapshot histogram) {
+            this.lock = lock;
+            this.site = site;
+            this.histogram = histogram;
+        }
+    }
+}
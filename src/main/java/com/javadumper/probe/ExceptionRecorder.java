@@ -0,0 +1,148 @@
+package com.javadumper.probe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * EXCEPTION_LOG 模式的记录器：ATHROW 前调用 thrown，catch 处理器入口调用 caught，
+ * 按 (方法, 异常类型) 累加无锁计数器。只读取异常的类名，不触碰栈轨迹。
+ * 报表同时给出累计值和距上次报表的增量与速率。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class ExceptionRecorder {
+
+    public static final String THROWN = "throw";
+    public static final String CAUGHT = "catch";
+
+    private static volatile MethodCounters[] byMethod = new MethodCounters[64];
+    private static final long startNanos = System.nanoTime();
+    private static long lastReportNanos = startNanos;
+
+    private ExceptionRecorder() {
+    }
+
+    public static void thrown(Throwable throwable, int methodId) {
+        if (throwable != null) {
+            countersOf(methodId).thrown.count(throwable);
+        }
+    }
+
+    public static void caught(Throwable throwable, int methodId) {
+        if (throwable != null) {
+            countersOf(methodId).caught.count(throwable);
+        }
+    }
+
+    private static MethodCounters countersOf(int methodId) {
+        MethodCounters[] current = byMethod;
+        MethodCounters counters = methodId < current.length ? current[methodId] : null;
+        return counters != null ? counters : create(methodId);
+    }
+
+    private static synchronized MethodCounters create(int methodId) {
+        MethodCounters[] current = byMethod;
+        if (methodId >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, methodId + 1));
+        }
+        if (current[methodId] == null) {
+            current[methodId] = new MethodCounters();
+        }
+        byMethod = current;
+        return current[methodId];
+    }
+
+    /**
+     * 输出按本区间增量排序的前 N 项；reset 时清零累计值
+     */
+    public static synchronized String report(int topN, boolean reset) {
+        long now = System.nanoTime();
+        double intervalSeconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+        double totalSeconds = Math.max(1e-9, (now - startNanos) / 1e9);
+        lastReportNanos = now;
+
+        List<ExceptionStats> stats = new ArrayList<>();
+        MethodCounters[] current = byMethod;
+        for (int id = 0; id < current.length; id++) {
+            if (current[id] != null) {
+                current[id].thrown.collect(id, THROWN, reset, stats);
+                current[id].caught.collect(id, CAUGHT, reset, stats);
+            }
+        }
+        if (stats.isEmpty()) {
+            return "No exception data";
+        }
+        stats.sort((a, b) -> a.delta != b.delta ? Long.compare(b.delta, a.delta) : Long.compare(b.total, a.total));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Interval: %.1fs%n%n", intervalSeconds));
+        sb.append(String.format("%-6s %12s %12s %10s %10s  %-40s %s%n",
+            "Kind", "Total", "Interval", "Rate/s", "AvgRate/s", "Exception", "Method"));
+        int limit = Math.min(topN, stats.size());
+        for (int i = 0; i < limit; i++) {
+            ExceptionStats s = stats.get(i);
+            sb.append(String.format("%-6s %12d %12d %10.1f %10.1f  %-40s %s%n",
+                s.kind, s.total, s.delta, s.delta / intervalSeconds, s.total / totalSeconds,
+                s.exception, s.method));
+        }
+        return sb.toString().trim();
+    }
+
+    private static final class MethodCounters {
+        final TypeCounters thrown = new TypeCounters();
+        final TypeCounters caught = new TypeCounters();
+    }
+
+    private static final class TypeCounters {
+        private final Map<String, Counter> byType = new ConcurrentHashMap<>();
+
+        void count(Throwable throwable) {
+            String type = throwable.getClass().getName();
+            Counter counter = byType.get(type);
+            if (counter == null) {
+                counter = byType.computeIfAbsent(type, k -> new Counter());
+            }
+            counter.adder.increment();
+        }
+
+        void collect(int methodId, String kind, boolean reset, List<ExceptionStats> result) {
+            for (Map.Entry<String, Counter> e : byType.entrySet()) {
+                Counter counter = e.getValue();
+                long total = reset ? counter.adder.sumThenReset() : counter.adder.sum();
+                long delta = total - counter.lastReported;
+                counter.lastReported = reset ? 0 : total;
+                if (total > 0) {
+                    result.add(new ExceptionStats(MethodRegistry.shortNameOf(methodId), kind,
+                        e.getKey(), total, Math.max(0, delta)));
+                }
+            }
+        }
+    }
+
+    private static final class Counter {
+        final LongAdder adder = new LongAdder();
+        // 只在 report 的锁内读写
+        long lastReported;
+    }
+
+    public static class ExceptionStats {
+        public final String method;
+        public final String kind;
+        public final String exception;
+        public final long total;
+        public final long delta;
+
+        ExceptionStats(String method, String kind, String exception, long total, long delta) {
+            this.method = method;
+            this.kind = kind;
+            this.exception = exception;
+            this.total = total;
+            this.delta = delta;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.javadumper.probe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 无分配的对数分桶直方图：每 2 的幂区间再分 8 个子桶（相对误差约 12.5%）。
+ * 按线程分条带记录，读取时合并，避免多线程争用同一缓存行。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    static final int BUCKETS = ((64 - SUB_BITS) << SUB_BITS);
+    private static final int COUNT = BUCKETS;
+    private static final int SUM = BUCKETS + 1;
+    private static final int MAX = BUCKETS + 2;
+    private static final int STRIPES = stripeCount();
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        AtomicLongArray cells = stripe();
+        cells.getAndIncrement(bucketOf(value));
+        cells.getAndIncrement(COUNT);
+        cells.getAndAdd(SUM, value);
+        long max = cells.get(MAX);
+        while (value > max && !cells.compareAndSet(MAX, max, value)) {
+            max = cells.get(MAX);
+        }
+    }
+
+    /**
+     * 合并各条带；reset 为 true 时同时清零，开始新的统计区间
+     */
+    public Snapshot snapshot(boolean reset) {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            AtomicLongArray cells = stripes.get(i);
+            if (cells == null) {
+                continue;
+            }
+            for (int b = 0; b < BUCKETS; b++) {
+                buckets[b] += reset ? cells.getAndSet(b, 0) : cells.get(b);
+            }
+            count += reset ? cells.getAndSet(COUNT, 0) : cells.get(COUNT);
+            sum += reset ? cells.getAndSet(SUM, 0) : cells.get(SUM);
+            max = Math.max(max, reset ? cells.getAndSet(MAX, 0) : cells.get(MAX));
+        }
+        return new Snapshot(buckets, count, sum, max);
+    }
+
+    private AtomicLongArray stripe() {
+        int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        AtomicLongArray cells = stripes.get(index);
+        if (cells == null) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS + 3));
+            cells = stripes.get(index);
+        }
+        return cells;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + mantissa;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exp = (bucket >> SUB_BITS) + SUB_BITS - 1;
+        long lower = (long) (SUB_COUNT + (bucket & (SUB_COUNT - 1))) << (exp - SUB_BITS);
+        long upper = lower + (1L << (exp - SUB_BITS)) - 1;
+        return lower < 0 || upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    private static int stripeCount() {
+        int cpus = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+        return Integer.highestOneBit(Math.max(1, cpus - 1)) << 1;
+    }
+
+    public static class Snapshot {
+        private final long[] buckets;
+        public final long count;
+        public final long sum;
+        public final long max;
+
+        Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile 0-100
+         */
+        public long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank && buckets[b] > 0) {
+                    return Math.min(upperBoundOf(b), max);
+                }
+            }
+            return max;
+        }
+    }
+}
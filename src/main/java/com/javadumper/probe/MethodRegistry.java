@@ -0,0 +1,69 @@
+package com.javadumper.probe;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 插桩方法编号表：注入代码里只携带 int 编号，展示时再查回方法名
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class MethodRegistry {
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[256];
+    private static int nextId;
+
+    private MethodRegistry() {
+    }
+
+    /**
+     * 同一个方法多次注册返回相同编号
+     *
+     * @param className 内部类名或点分类名
+     */
+    public static int register(String className, String methodName, String descriptor) {
+        String key = className.replace('/', '.') + "." + methodName + (descriptor != null ? descriptor : "");
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (MethodRegistry.class) {
+            id = ids.get(key);
+            if (id == null) {
+                id = nextId++;
+                String[] current = names;
+                if (id >= current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                }
+                current[id] = key;
+                names = current;
+                ids.put(key, id);
+            }
+            return id;
+        }
+    }
+
+    public static String nameOf(int id) {
+        String[] current = names;
+        String name = id >= 0 && id < current.length ? current[id] : null;
+        return name != null ? name : "#" + id;
+    }
+
+    /**
+     * 不带描述符的短名，用于报表和调用栈
+     */
+    public static String shortNameOf(int id) {
+        String name = nameOf(id);
+        int paren = name.indexOf('(');
+        return paren > 0 ? name.substring(0, paren) : name;
+    }
+
+    public static int size() {
+        synchronized (MethodRegistry.class) {
+            return nextId;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.javadumper.probe;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 后台排空线程：周期性执行各探针注册的排空任务，把热路径上的格式化和 IO 挪到这里
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class ProbeDrainer {
+
+    private static final long INTERVAL_MILLIS = 20;
+    private static final List<Runnable> tasks = new CopyOnWriteArrayList<>();
+    private static Thread thread;
+
+    private ProbeDrainer() {
+    }
+
+    public static synchronized void register(Runnable task) {
+        tasks.add(task);
+        if (thread == null) {
+            thread = new Thread(ProbeDrainer::loop, "JavaDumper-ProbeDrainer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * 立即在调用线程执行一轮排空，查询前调用以拿到最新数据
+     */
+    public static void drainNow() {
+        synchronized (tasks) {
+            for (Runnable task : tasks) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("[ProbeDrainer] Drain task failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void loop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            drainNow();
+            try {
+                Thread.sleep(INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
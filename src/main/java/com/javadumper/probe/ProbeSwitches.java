@@ -0,0 +1,132 @@
+package com.javadumper.probe;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 探针开关：每个具名探针对应一个 MutableCallSite，目标是返回常量 boolean 的 MethodHandle。
+ * 注入代码用 invokedynamic 绑定到它，JIT 把开关当常量折叠，关闭后的探针只剩一个被消除的分支；
+ * 切换时替换目标并 syncAll，触发依赖它的编译代码去优化，无需重新转换类。
+ * 类文件版本低于 51 无法使用 invokedynamic，回退为 isEnabled 静态调用。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class ProbeSwitches {
+
+    private static final MethodType GUARD_TYPE = MethodType.methodType(boolean.class);
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile Probe[] probes = new Probe[64];
+    private static volatile boolean[] states = new boolean[64];
+    private static int nextId;
+
+    private ProbeSwitches() {
+    }
+
+    /**
+     * 注册探针并置为开启；同名探针返回相同编号
+     */
+    public static int register(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            synchronized (ProbeSwitches.class) {
+                id = ids.get(name);
+                if (id == null) {
+                    id = nextId++;
+                    Probe[] current = probes;
+                    boolean[] currentStates = states;
+                    if (id >= current.length) {
+                        current = Arrays.copyOf(current, current.length * 2);
+                        currentStates = Arrays.copyOf(currentStates, current.length);
+                    }
+                    current[id] = new Probe(name);
+                    probes = current;
+                    states = currentStates;
+                    ids.put(name, id);
+                }
+            }
+        }
+        set(id, true);
+        return id;
+    }
+
+    /**
+     * invokedynamic 引导方法，同一探针的所有调用点共享一个 CallSite
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, int probeId) {
+        if (!GUARD_TYPE.equals(type)) {
+            throw new IllegalArgumentException("Unexpected probe guard type: " + type);
+        }
+        return probes[probeId].site;
+    }
+
+    /**
+     * 低版本类文件的回退路径
+     */
+    public static boolean isEnabled(int probeId) {
+        boolean[] current = states;
+        return probeId < current.length && current[probeId];
+    }
+
+    public static boolean set(String name, boolean enabled) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            return false;
+        }
+        set(id, enabled);
+        return true;
+    }
+
+    /**
+     * 批量切换，name 为 all 时切换全部；返回切换的探针数
+     */
+    public static int setMatching(String name, boolean enabled) {
+        if (!"all".equalsIgnoreCase(name)) {
+            return set(name, enabled) ? 1 : 0;
+        }
+        int count = 0;
+        for (int id : ids.values()) {
+            set(id, enabled);
+            count++;
+        }
+        return count;
+    }
+
+    public static synchronized void set(int id, boolean enabled) {
+        Probe probe = probes[id];
+        if (probe.enabled == enabled) {
+            return;
+        }
+        probe.enabled = enabled;
+        states[id] = enabled;
+        probe.site.setTarget(MethodHandles.constant(boolean.class, enabled));
+        MutableCallSite.syncAll(new MutableCallSite[]{probe.site});
+    }
+
+    public static synchronized List<String> list() {
+        List<String> result = new ArrayList<>();
+        for (int id = 0; id < nextId; id++) {
+            Probe probe = probes[id];
+            result.add(String.format("%-4d %-4s %s", id, probe.enabled ? "on" : "off", probe.name));
+        }
+        return result;
+    }
+
+    private static final class Probe {
+        final String name;
+        final MutableCallSite site = new MutableCallSite(MethodHandles.constant(boolean.class, false));
+        boolean enabled;
+
+        Probe(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.javadumper.probe;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 采样式 CPU 剖析器：后台线程按固定间隔抓取 RUNNABLE 线程的栈，
+ * 帧按 类名.方法名 驻留为整数 id，栈从底到顶插入前缀树聚合。
+ * 开销只取决于采样频率和线程数，与业务方法的调用频率无关。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public class SamplingProfiler {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 10;
+    public static final int DEFAULT_MAX_DEPTH = 128;
+    private static final String[] IDLE_NATIVE_PREFIXES = {
+        "sun.nio.ch.", "java.net.", "sun.net.", "java.io.FileInputStream", "jdk.internal.misc.Signal"
+    };
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final long intervalMillis;
+    private final int maxDepth;
+
+    // 帧驻留表：className -> methodName -> frameId，只由采样线程写
+    private final Map<String, Map<String, Integer>> frameIds = new HashMap<>();
+    private final List<String> frameNames = new ArrayList<>();
+    private long[] selfSamples = new long[256];
+    private long[] totalSamples = new long[256];
+    private long[] seenInSample = new long[256];
+    private final Node root = new Node(-1);
+
+    private volatile Thread thread;
+    private long samples;
+    private long ticks;
+    private long sampleNanos;
+    private long startMillis;
+    private long stopMillis;
+
+    public SamplingProfiler() {
+        this(DEFAULT_INTERVAL_MILLIS, DEFAULT_MAX_DEPTH);
+    }
+
+    public SamplingProfiler(long intervalMillis, int maxDepth) {
+        this.intervalMillis = Math.max(1, intervalMillis);
+        this.maxDepth = Math.max(1, maxDepth);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        startMillis = System.currentTimeMillis();
+        stopMillis = 0;
+        Thread t = new Thread(this::loop, "JavaDumper-Profiler");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    public void stop() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        t.interrupt();
+        try {
+            t.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            thread = null;
+            stopMillis = System.currentTimeMillis();
+        }
+    }
+
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    private void loop() {
+        long selfId = Thread.currentThread().getId();
+        while (!Thread.currentThread().isInterrupted()) {
+            long begin = System.nanoTime();
+            // 抓栈需要进入安全点，放在锁外；每轮只做一次，频率固定
+            ThreadInfo[] infos = threadBean.getThreadInfo(threadBean.getAllThreadIds(), maxDepth);
+            synchronized (this) {
+                for (ThreadInfo info : infos) {
+                    if (info == null || info.getThreadId() == selfId
+                            || info.getThreadState() != Thread.State.RUNNABLE) {
+                        continue;
+                    }
+                    StackTraceElement[] stack = info.getStackTrace();
+                    if (stack.length > 0 && !isIdleNative(stack[0])) {
+                        record(stack);
+                    }
+                }
+                ticks++;
+                sampleNanos += System.nanoTime() - begin;
+            }
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 阻塞在 socket/epoll 等本地方法里的线程状态也是 RUNNABLE，但并不消耗 CPU
+     */
+    private static boolean isIdleNative(StackTraceElement top) {
+        if (!top.isNativeMethod()) {
+            return false;
+        }
+        String className = top.getClassName();
+        for (String prefix : IDLE_NATIVE_PREFIXES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return "waitForReferencePendingList".equals(top.getMethodName());
+    }
+
+    private void record(StackTraceElement[] stack) {
+        samples++;
+        Node node = root;
+        for (int i = stack.length - 1; i >= 0; i--) {
+            int frame = intern(stack[i]);
+            // 递归时同一帧在一个样本里只计一次 total
+            if (seenInSample[frame] != samples) {
+                seenInSample[frame] = samples;
+                totalSamples[frame]++;
+            }
+            node = node.child(frame);
+            node.samples++;
+        }
+        node.self++;
+        selfSamples[node.frame]++;
+    }
+
+    private int intern(StackTraceElement element) {
+        Map<String, Integer> methods = frameIds.computeIfAbsent(element.getClassName(), k -> new HashMap<>());
+        Integer id = methods.get(element.getMethodName());
+        if (id != null) {
+            return id;
+        }
+        int frame = frameNames.size();
+        frameNames.add(element.getClassName() + "." + element.getMethodName());
+        methods.put(element.getMethodName(), frame);
+        if (frame == selfSamples.length) {
+            int size = frame * 2;
+            selfSamples = Arrays.copyOf(selfSamples, size);
+            totalSamples = Arrays.copyOf(totalSamples, size);
+            seenInSample = Arrays.copyOf(seenInSample, size);
+        }
+        return frame;
+    }
+
+    public synchronized String status() {
+        long end = stopMillis > 0 ? stopMillis : System.currentTimeMillis();
+        return String.format("Profiler %s: interval=%dms, maxDepth=%d, ticks=%d, samples=%d, "
+                + "frames=%d, elapsed=%.1fs, avgTickCost=%.1fus",
+            thread != null ? "running" : "stopped", intervalMillis, maxDepth, ticks, samples,
+            frameNames.size(), startMillis == 0 ? 0 : (end - startMillis) / 1000.0,
+            ticks == 0 ? 0 : sampleNanos / 1000.0 / ticks);
+    }
+
+    /**
+     * 按自身采样数排序输出前 N 个热点方法
+     */
+    public synchronized String report(int topN) {
+        if (samples == 0) {
+            return "No samples collected";
+        }
+
+        Integer[] order = new Integer[frameNames.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> selfSamples[b] != selfSamples[a]
+            ? Long.compare(selfSamples[b], selfSamples[a])
+            : Long.compare(totalSamples[b], totalSamples[a]));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(status()).append("\n\n");
+        sb.append(String.format("%8s %7s %8s %7s  %s%n", "Self", "Self%", "Total", "Total%", "Method"));
+        int limit = Math.min(topN, order.length);
+        for (int i = 0; i < limit; i++) {
+            int frame = order[i];
+            if (selfSamples[frame] == 0 && totalSamples[frame] == 0) {
+                break;
+            }
+            sb.append(String.format("%8d %6.2f%% %8d %6.2f%%  %s%n",
+                selfSamples[frame], selfSamples[frame] * 100.0 / samples,
+                totalSamples[frame], totalSamples[frame] * 100.0 / samples,
+                frameNames.get(frame)));
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * 导出火焰图用的 collapsed stack 格式：frame1;frame2;... 采样数
+     */
+    public int exportCollapsed(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            collect(root, new StringBuilder(), lines);
+        }
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        return lines.size();
+    }
+
+    private void collect(Node node, StringBuilder prefix, List<String> lines) {
+        for (int i = 0; i < node.childCount; i++) {
+            Node child = node.children[i];
+            int mark = prefix.length();
+            if (mark > 0) {
+                prefix.append(';');
+            }
+            prefix.append(frameNames.get(child.frame));
+            if (child.self > 0) {
+                lines.add(prefix + " " + child.self);
+            }
+            collect(child, prefix, lines);
+            prefix.setLength(mark);
+        }
+    }
+
+    private static final class Node {
+        final int frame;
+        Node[] children = new Node[2];
+        int childCount;
+        long samples;
+        long self;
+
+        Node(int frame) {
+            this.frame = frame;
+        }
+
+        Node child(int id) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].frame == id) {
+                    return children[i];
+                }
+            }
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            Node node = new Node(id);
+            children[childCount++] = node;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.javadumper.probe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TIMING 模式的记录器：注入代码把耗时写入按方法编号索引的直方图，热路径不分配对象。
+ * 正常返回和异常退出分开统计。
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class TimingRecorder {
+
+    public static final String RETURN = "return";
+    public static final String THROW = "throw";
+
+    private static final Histograms returns = new Histograms();
+    private static final Histograms throwns = new Histograms();
+
+    private TimingRecorder() {
+    }
+
+    public static void record(int methodId, long nanos) {
+        returns.get(methodId).record(nanos);
+    }
+
+    public static void recordThrow(int methodId, long nanos) {
+        throwns.get(methodId).record(nanos);
+    }
+
+    public static List<MethodStats> snapshot(boolean reset) {
+        List<MethodStats> result = new ArrayList<>();
+        returns.snapshot(RETURN, reset, result);
+        throwns.snapshot(THROW, reset, result);
+        return result;
+    }
+
+    /**
+     * 以微秒为单位的统计表
+     */
+    public static String report(boolean reset) {
+        List<MethodStats> stats = snapshot(reset);
+        if (stats.isEmpty()) {
+            return "No timing data";
+        }
+        stats.sort((a, b) -> Long.compare(b.histogram.sum, a.histogram.sum));
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-70s %-7s %10s %10s %10s %10s %10s %10s %10s%n",
+            "Method", "Outcome", "Count", "Mean(us)", "P50", "P90", "P99", "P999", "Max"));
+        for (MethodStats s : stats) {
+            LatencyHistogram.Snapshot h = s.histogram;
+            sb.append(String.format("%-70s %-7s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                s.method, s.outcome, h.count, h.mean() / 1000.0,
+                h.percentile(50) / 1000.0, h.percentile(90) / 1000.0,
+                h.percentile(99) / 1000.0, h.percentile(99.9) / 1000.0, h.max / 1000.0));
+        }
+        return sb.toString().trim();
+    }
+
+    private static final class Histograms {
+        private volatile LatencyHistogram[] byMethod = new LatencyHistogram[64];
+
+        LatencyHistogram get(int methodId) {
+            LatencyHistogram[] current = byMethod;
+            LatencyHistogram histogram = methodId < current.length ? current[methodId] : null;
+            return histogram != null ? histogram : create(methodId);
+        }
+
+        private synchronized LatencyHistogram create(int methodId) {
+            LatencyHistogram[] current = byMethod;
+            if (methodId >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, methodId + 1));
+            }
+            if (current[methodId] == null) {
+                current[methodId] = new LatencyHistogram();
+            }
+            byMethod = current;
+            return current[methodId];
+        }
+
+        void snapshot(String outcome, boolean reset, List<MethodStats> result) {
+            LatencyHistogram[] current = byMethod;
+            for (int id = 0; id < current.length; id++) {
+                if (current[id] != null) {
+                    LatencyHistogram.Snapshot snapshot = current[id].snapshot(reset);
+                    if (snapshot.count > 0) {
+                        result.add(new MethodStats(MethodRegistry.nameOf(id), outcome, snapshot));
+                    }
+                }
+            }
+        }
+    }
+
+    public static class MethodStats {
+        public final String method;
+        public final String outcome;
+        public final LatencyHistogram.Snapshot histogram;
+
+        MethodStats(String method, String outcome, LatencyHistogram.Snapshot histogram) {
+            this.method = method;
+            this.outcome = outcome;
+            this.histogram = histogram;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.javadumper.probe;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TRACE 模式的记录器。注入代码调用 enter/exit，事件以定长二进制写入
+ * 每线程一个的堆外环形缓冲（单生产者单消费者，无锁），由 ProbeDrainer
+ * 在后台排空并分发给订阅者。缓冲满时丢弃事件并计数，不阻塞业务线程。
+ *
+ * 事件布局（24 字节）：nanoTime(8) | threadId(8) | methodId(4) | kind(4)
+ *
+ * @author Absurdity 457676887
+ * @since 26/01/19
+ */
+public final class TraceRecorder {
+
+    public static final int ENTER = 0;
+    public static final int EXIT = 1;
+    public static final int THROW = 2;
+
+    static final int EVENT_SIZE = 24;
+    private static final int RING_EVENTS = 4096;
+
+    private static final List<Ring> rings = new CopyOnWriteArrayList<>();
+    private static final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private static final AtomicLong droppedTotal = new AtomicLong();
+    private static final ThreadLocal<Ring> localRing = ThreadLocal.withInitial(TraceRecorder::newRing);
+
+    static {
+        ProbeDrainer.register(TraceRecorder::drain);
+    }
+
+    private TraceRecorder() {
+    }
+
+    public static void enter(int methodId) {
+        localRing.get().write(methodId, ENTER);
+    }
+
+    public static void exit(int methodId) {
+        localRing.get().write(methodId, EXIT);
+    }
+
+    public static void exitExceptionally(int methodId) {
+        localRing.get().write(methodId, THROW);
+    }
+
+    public static void addSubscriber(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public static void removeSubscriber(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    public static long getDroppedCount() {
+        long dropped = droppedTotal.get();
+        for (Ring ring : rings) {
+            dropped += ring.dropped;
+        }
+        return dropped;
+    }
+
+    private static Ring newRing() {
+        Ring ring = new Ring(Thread.currentThread(), RING_EVENTS);
+        rings.add(ring);
+        return ring;
+    }
+
+    static void drain() {
+        List<Subscriber> targets = subscribers;
+        for (Ring ring : rings) {
+            ring.drainTo(targets);
+            if (!ring.isOwnerAlive() && ring.isEmpty()) {
+                droppedTotal.addAndGet(ring.dropped);
+                rings.remove(ring);
+            }
+        }
+        for (Subscriber subscriber : targets) {
+            subscriber.flush();
+        }
+    }
+
+    public static String kindName(int kind) {
+        switch (kind) {
+            case ENTER:
+                return ">>";
+            case EXIT:
+                return "<<";
+            default:
+                return "<!";
+        }
+    }
+
+    private static final class Ring {
+        private final ByteBuffer buffer;
+        private final int mask;
+        private final long threadId;
+        private final WeakReference<Thread> owner;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        // 以下字段只由所属线程读写
+        private long producerTail;
+        private long headCache;
+        private volatile long dropped;
+
+        Ring(Thread thread, int events) {
+            this.buffer = ByteBuffer.allocateDirect(events * EVENT_SIZE);
+            this.mask = events - 1;
+            this.threadId = thread.getId();
+            this.owner = new WeakReference<>(thread);
+        }
+
+        void write(int methodId, int kind) {
+            long t = producerTail;
+            if (t - headCache > mask) {
+                headCache = head.get();
+                if (t - headCache > mask) {
+                    dropped++;
+                    return;
+                }
+            }
+            int offset = (int) (t & mask) * EVENT_SIZE;
+            buffer.putLong(offset, System.nanoTime());
+            buffer.putLong(offset + 8, threadId);
+            buffer.putInt(offset + 16, methodId);
+            buffer.putInt(offset + 20, kind);
+            producerTail = t + 1;
+            tail.lazySet(t + 1);
+        }
+
+        void drainTo(List<Subscriber> targets) {
+            long h = head.get();
+            long t = tail.get();
+            for (; h < t; h++) {
+                int offset = (int) (h & mask) * EVENT_SIZE;
+                long nanoTime = buffer.getLong(offset);
+                long tid = buffer.getLong(offset + 8);
+                int methodId = buffer.getInt(offset + 16);
+                int kind = buffer.getInt(offset + 20);
+                for (Subscriber subscriber : targets) {
+                    subscriber.onEvent(nanoTime, tid, methodId, kind);
+                }
+            }
+            head.lazySet(t);
+        }
+
+        boolean isEmpty() {
+            return head.get() == tail.get();
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+    }
+
+    /**
+     * 事件订阅者，在排空线程中回调
+     */
+    public interface Subscriber {
+        void onEvent(long nanoTime, long threadId, int methodId, int kind);
+
+        default void flush() {
+        }
+    }
+
+    /**
+     * 按行写入文本文件
+     */
+    public static class FileSubscriber implements Subscriber, AutoCloseable {
+        private final Path path;
+        private final BufferedWriter writer;
+
+        public FileSubscriber(Path path) throws IOException {
+            this.path = path;
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void onEvent(long nanoTime, long threadId, int methodId, int kind) {
+            try {
+                writer.write(String.format("%d %d %s %s%n",
+                    nanoTime, threadId, kindName(kind), MethodRegistry.nameOf(methodId)));
+            } catch (IOException e) {
+                System.err.println("[TraceRecorder] Write failed: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                System.err.println("[TraceRecorder] Flush failed: " + e.getMessage());
+            }
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * 保留最近 N 条事件，供 AgentServer 查询
+     */
+    public static class RecentEvents implements Subscriber {
+        private final int capacity;
+        private final Deque<String> events = new ArrayDeque<>();
+
+        public RecentEvents(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized void onEvent(long nanoTime, long threadId, int methodId, int kind) {
+            if (events.size() >= capacity) {
+                events.removeFirst();
+            }
+            events.addLast(String.format("[%d] tid=%d %s %s",
+                nanoTime, threadId, kindName(kind), MethodRegistry.nameOf(methodId)));
+        }
+
+        /**
+         * 取出并清空最多 max 条最新事件
+         */
+        public synchronized List<String> take(int max) {
+            List<String> result = new ArrayList<>(Math.min(max, events.size()));
+            while (events.size() > max) {
+                events.removeFirst();
+            }
+            result.addAll(events);
+            events.clear();
+            return result;
+        }
+    }
+}